@@ -0,0 +1,98 @@
+package com.celarli.commons.vfs.provider.google;
+
+/**
+ * Limits the number of requests in flight against a bucket. The limit grows by one request per round trip while
+ * requests succeed and is halved when GCS throttles (additive increase, multiplicative decrease).
+ */
+class GCSAdaptiveLimiter {
+
+    private static final double BACKOFF_RATIO = 0.5;
+
+    /**
+     * A burst of throttled requests only lowers the limit once
+     */
+    private static final long BACKOFF_INTERVAL_NANOS = 100_000_000L;
+
+    private final int maxLimit;
+    private double limit;
+    private int inFlight = 0;
+    private long lastBackoff;
+
+
+    /**
+     * Constructor
+     *
+     * @param maxLimit the limit the adaptive one starts from and never exceeds
+     */
+    GCSAdaptiveLimiter(int maxLimit) {
+
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = this.maxLimit;
+        this.lastBackoff = System.nanoTime() - BACKOFF_INTERVAL_NANOS;
+    }
+
+
+    /**
+     * Waits until a request can be sent
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void acquire() throws InterruptedException {
+
+        while (this.inFlight >= (int) this.limit) {
+            wait();
+        }
+        this.inFlight++;
+    }
+
+
+    /**
+     * Reserves a slot for a request only if one is available right away
+     *
+     * @return true if the request can be sent
+     */
+    synchronized boolean tryAcquire() {
+
+        if (this.inFlight >= (int) this.limit) {
+            return false;
+        }
+        this.inFlight++;
+        return true;
+    }
+
+
+    /**
+     * Releases the slot of a completed request and adapts the limit to its outcome
+     *
+     * @param throttled whether GCS throttled the request
+     */
+    synchronized void release(boolean throttled) {
+
+        this.inFlight--;
+
+        long now = System.nanoTime();
+        if (throttled) {
+            if (now - this.lastBackoff >= BACKOFF_INTERVAL_NANOS) {
+                this.limit = Math.max(1, this.limit * BACKOFF_RATIO);
+                this.lastBackoff = now;
+            }
+        }
+        else {
+            this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+        }
+
+        notifyAll();
+    }
+
+
+    synchronized int getLimit() {
+
+        return (int) this.limit;
+    }
+
+
+    synchronized int getInFlight() {
+
+        return this.inFlight;
+    }
+}
@@ -0,0 +1,155 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static java.lang.String.format;
+
+
+/**
+ * Reads the content of a blob through the request scheduler. The reader only sends a request when its buffer needs
+ * a new chunk of the blob; the first chunk is read through the scheduler, and when a later chunk fails the reader is
+ * opened again through the scheduler where it stopped, so reads get the bucket limits, hedging and retries of the
+ * other requests.
+ */
+class GCSBlobInputStream extends InputStream {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSBlobInputStream.class);
+
+    private final GCSFileObject file;
+    private final Storage storage;
+    private final BlobId blobId;
+
+    private ReadChannel channel;
+    private long position;
+
+
+    /**
+     * Constructor
+     *
+     * @param file    the file whose bucket schedules the reads
+     * @param storage the client sending the requests of the scheduler
+     * @param blobId  the blob to read, with its generation
+     */
+    GCSBlobInputStream(@Nonnull GCSFileObject file, @Nonnull Storage storage, @Nonnull BlobId blobId) {
+
+        this.file = file;
+        this.storage = storage;
+        this.blobId = blobId;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+
+        byte[] b = new byte[1];
+        int count = read(b, 0, 1);
+        return count == -1 ? -1 : b[0] & 0xff;
+    }
+
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        int count;
+        if (this.channel == null) {
+            count = open(buffer);
+        }
+        else {
+            try {
+                count = this.channel.read(buffer);
+            }
+            catch (StorageException e) {
+                if (!GCSRequestScheduler.isRetryable(e)) {
+                    throw new IOException(e);
+                }
+                log.debug(format("Reading %s failed at %d with %d, reopening", this.blobId, this.position,
+                        e.getCode()));
+                this.channel.close();
+                this.channel = null;
+                count = open(buffer);
+            }
+        }
+
+        if (count > 0) {
+            this.position += count;
+        }
+        return count;
+    }
+
+
+    /**
+     * Opens a reader at the current position and reads its first chunk through the scheduler
+     */
+    private int open(@Nonnull ByteBuffer buffer) throws IOException {
+
+        Chunk chunk;
+        try {
+            // Hedged attempts run concurrently, so each one reads into its own buffer
+            chunk = this.file.execute(true, () -> {
+                ReadChannel channel = this.storage.reader(this.blobId);
+                channel.seek(this.position);
+                ByteBuffer attempt = ByteBuffer.allocate(buffer.remaining());
+                try {
+                    return new Chunk(channel, attempt, channel.read(attempt));
+                }
+                catch (RuntimeException | IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            });
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        this.channel = chunk.channel;
+        if (chunk.count > 0) {
+            buffer.put(chunk.buffer.array(), 0, chunk.count);
+        }
+        return chunk.count;
+    }
+
+
+    @Override
+    public void close() {
+
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+
+    private static class Chunk {
+
+        final ReadChannel channel;
+        final ByteBuffer buffer;
+        final int count;
+
+
+        Chunk(@Nonnull ReadChannel channel, @Nonnull ByteBuffer buffer, int count) {
+
+            this.channel = channel;
+            this.buffer = buffer;
+            this.count = count;
+        }
+    }
+}
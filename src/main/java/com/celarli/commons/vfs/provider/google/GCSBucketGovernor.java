@@ -0,0 +1,23 @@
+package com.celarli.commons.vfs.provider.google;
+
+/**
+ * The scheduling state of a bucket: its adaptive concurrency limit and the latencies of its requests
+ */
+class GCSBucketGovernor {
+
+    final GCSAdaptiveLimiter limiter;
+    final GCSLatencyTracker latency;
+
+
+    /**
+     * Constructor
+     *
+     * @param maxConcurrentRequests the maximum number of requests in flight against the bucket
+     * @param hedgePercentile       the latency percentile after which a request is hedged
+     */
+    GCSBucketGovernor(int maxConcurrentRequests, double hedgePercentile) {
+
+        this.limiter = new GCSAdaptiveLimiter(maxConcurrentRequests);
+        this.latency = new GCSLatencyTracker(hedgePercentile);
+    }
+}
@@ -1,7 +1,11 @@
 package com.celarli.commons.vfs.provider.google;
 
+import com.google.api.gax.retrying.RetrySettings;
 import com.google.auth.oauth2.ComputeEngineCredentials;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.TransportOptions;
+import com.google.cloud.http.HttpTransportOptions;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import org.apache.commons.vfs2.FileSystemOptions;
@@ -20,6 +24,29 @@ public class GCSClientFactory {
 
     public static Storage getClient(FileSystemOptions fileSystemOptions) {
 
+        return getClient(fileSystemOptions, StorageOptions.getDefaultHttpTransportOptions());
+    }
+
+
+    public static Storage getClient(FileSystemOptions fileSystemOptions, TransportOptions transportOptions) {
+
+        return getClient(fileSystemOptions, transportOptions, ServiceOptions.getDefaultRetrySettings());
+    }
+
+
+    /**
+     * Creates a client sending its requests through the given transport and retrying them with the given settings.
+     * Clients whose requests are retried by the caller, such as the ones behind the request scheduler, should be
+     * created with {@link ServiceOptions#getNoRetrySettings()}.
+     *
+     * @param fileSystemOptions the options holding the client type, credentials and host
+     * @param transportOptions  the transport of the client
+     * @param retrySettings     the retries of the client
+     * @return the client
+     */
+    public static Storage getClient(FileSystemOptions fileSystemOptions, TransportOptions transportOptions,
+            RetrySettings retrySettings) {
+
         Integer type = GcsFileSystemConfigBuilder.getInstance().getClientType(fileSystemOptions);
 
         Optional<ClientType> optional = ClientType.getByType(type);
@@ -34,14 +61,21 @@ public class GCSClientFactory {
             }
 
             try {
-                GoogleCredentials credentials = GoogleCredentials.fromStream(new ByteArrayInputStream(bytes));
+                // Tokens are requested through the transport of the client, so they take the same route
+                GoogleCredentials credentials = transportOptions instanceof HttpTransportOptions
+                        ? GoogleCredentials.fromStream(new ByteArrayInputStream(bytes),
+                                ((HttpTransportOptions) transportOptions).getHttpTransportFactory())
+                        : GoogleCredentials.fromStream(new ByteArrayInputStream(bytes));
 
                 String hostname = GcsFileSystemConfigBuilder.getInstance().getHostname(fileSystemOptions);
                 if (hostname != null) {
-                    return StorageOptions.newBuilder().setCredentials(credentials).setHost(hostname).build().getService();
+                    return StorageOptions.newBuilder().setTransportOptions(transportOptions)
+                            .setRetrySettings(retrySettings).setCredentials(credentials).setHost(hostname).build()
+                            .getService();
                 }
                 else {
-                    return StorageOptions.newBuilder().setCredentials(credentials).build().getService();
+                    return StorageOptions.newBuilder().setTransportOptions(transportOptions)
+                            .setRetrySettings(retrySettings).setCredentials(credentials).build().getService();
                 }
             }
             catch (IOException ioe) {
@@ -51,10 +85,12 @@ public class GCSClientFactory {
         case COMPUTE_ENGINE:
             // Explicitly request service account credentials from the compute engine instance.
             GoogleCredentials computeEngineCredentials = ComputeEngineCredentials.create();
-            return StorageOptions.newBuilder().setCredentials(computeEngineCredentials).build().getService();
+            return StorageOptions.newBuilder().setTransportOptions(transportOptions).setRetrySettings(retrySettings)
+                    .setCredentials(computeEngineCredentials).build().getService();
 
         case APPLICATION:
-            return StorageOptions.getDefaultInstance().getService();
+            return StorageOptions.newBuilder().setTransportOptions(transportOptions).setRetrySettings(retrySettings)
+                    .build().getService();
         }
 
         throw new RuntimeException(INVALID_CLIENT_TYPE);
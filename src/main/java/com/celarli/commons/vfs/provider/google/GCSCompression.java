@@ -0,0 +1,223 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.String.format;
+
+
+/**
+ * Transparent gzip content encoding of blobs. Compressed blobs are stored with a gzip content encoding and record
+ * their uncompressed size in their metadata. Copies know it up front and set it when creating the blob. Streams of
+ * unknown size record it once written, with a request conditioned on the blob being the one they wrote. Until then,
+ * or if that request fails, and for gzip encoded blobs written by other tools, the stored size is reported instead.
+ */
+class GCSCompression {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSCompression.class);
+
+    static final String GZIP_ENCODING = "gzip";
+
+    /**
+     * The metadata entry holding the uncompressed size of a compressed blob
+     */
+    static final String UNCOMPRESSED_SIZE = "uncompressed-size";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+
+    private GCSCompression() {
+
+    }
+
+
+    /**
+     * Checks whether the given content type is one of the configured ones. Types ending with a wildcard subtype,
+     * i.e. text/*, match every subtype.
+     */
+    static boolean matches(@Nullable String contentType, @Nullable String[] contentTypes) {
+
+        if (contentType == null || contentTypes == null) {
+            return false;
+        }
+
+        for (String type : contentTypes) {
+            if (type.endsWith("/*")) {
+                if (contentType.startsWith(type.substring(0, type.length() - 1))) {
+                    return true;
+                }
+            }
+            else if (contentType.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    static boolean isCompressed(@Nullable BlobInfo blobInfo) {
+
+        return blobInfo != null && GZIP_ENCODING.equalsIgnoreCase(blobInfo.getContentEncoding());
+    }
+
+
+    /**
+     * Returns the size of the content as seen by readers, that is the uncompressed size of compressed blobs when it
+     * is recorded, the stored size otherwise
+     */
+    static long getContentSize(@Nonnull BlobInfo blobInfo) {
+
+        Long uncompressedSize = getUncompressedSize(blobInfo);
+        if (uncompressedSize != null) {
+            return uncompressedSize;
+        }
+        return blobInfo.getSize() != null ? blobInfo.getSize() : 0;
+    }
+
+
+    /**
+     * Returns the uncompressed size recorded by a compressed blob, or null if the blob is not compressed or does not
+     * record it
+     */
+    @Nullable
+    static Long getUncompressedSize(@Nonnull BlobInfo blobInfo) {
+
+        if (isCompressed(blobInfo) && blobInfo.getMetadata() != null) {
+            String uncompressedSize = blobInfo.getMetadata().get(UNCOMPRESSED_SIZE);
+            if (uncompressedSize != null) {
+                return Long.parseLong(uncompressedSize);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Decompresses the content of a compressed blob as returned by its reader. Readers return the content as stored,
+     * unlike whole-object reads which the transport decodes, so the content must not be read the latter way before
+     * being decompressed.
+     */
+    @Nonnull
+    static InputStream decompress(@Nonnull InputStream inputStream) throws IOException {
+
+        return new GZIPInputStream(inputStream, BUFFER_SIZE);
+    }
+
+
+    /**
+     * Compresses everything written to the returned stream into the given blob stream. Unless the blob was created
+     * with the right uncompressed size, it is recorded in the metadata of the blob when the stream is closed.
+     */
+    @Nonnull
+    static OutputStream compress(@Nonnull OutputStream outputStream, @Nonnull Storage storage,
+            @Nonnull BlobInfo blobInfo) throws IOException {
+
+        HashingOutputStream hashingOutputStream = new HashingOutputStream(Hashing.crc32c(), outputStream);
+        return new CompressingOutputStream(new GZIPOutputStream(hashingOutputStream, BUFFER_SIZE), hashingOutputStream,
+                storage, blobInfo);
+    }
+
+
+    private static class CompressingOutputStream extends FilterOutputStream {
+
+        /**
+         * Hashes the compressed content, to recognize the blob this stream wrote
+         */
+        private final HashingOutputStream hashingOutputStream;
+        private final Storage storage;
+        private final BlobInfo blobInfo;
+        private long count = 0;
+        private boolean closed = false;
+
+
+        CompressingOutputStream(@Nonnull OutputStream outputStream, @Nonnull HashingOutputStream hashingOutputStream,
+                @Nonnull Storage storage, @Nonnull BlobInfo blobInfo) {
+
+            super(outputStream);
+            this.hashingOutputStream = hashingOutputStream;
+            this.storage = storage;
+            this.blobInfo = blobInfo;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+
+            this.out.write(b);
+            this.count++;
+        }
+
+
+        @Override
+        public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            super.close();
+
+            log.debug(format("Compressed %d bytes into %s", this.count, this.blobInfo.getName()));
+            Map<String, String> metadata = this.blobInfo.getMetadata();
+            if (metadata == null || !String.valueOf(this.count).equals(metadata.get(UNCOMPRESSED_SIZE))) {
+                recordUncompressedSize();
+            }
+        }
+
+
+        /**
+         * Records the uncompressed size in the metadata of the blob, unless it was replaced in the meantime. The
+         * content is already committed, so failures are only logged.
+         */
+        private void recordUncompressedSize() {
+
+            String crc32c = BaseEncoding.base64().encode(Ints.toByteArray(this.hashingOutputStream.hash().asInt()));
+            try {
+                Blob blob = this.storage.get(BlobId.of(this.blobInfo.getBucket(), this.blobInfo.getName()));
+                if (blob == null || !crc32c.equals(blob.getCrc32c())) {
+                    log.warn(format("%s was replaced before its uncompressed size was recorded",
+                            this.blobInfo.getName()));
+                    return;
+                }
+
+                Map<String, String> metadata = blob.getMetadata() != null ? new HashMap<>(blob.getMetadata())
+                        : new HashMap<>();
+                metadata.put(UNCOMPRESSED_SIZE, String.valueOf(this.count));
+                this.storage.update(blob.toBuilder().setMetadata(metadata).build(),
+                        Storage.BlobTargetOption.generationMatch(), Storage.BlobTargetOption.metagenerationMatch());
+            }
+            catch (StorageException e) {
+                log.warn(format("Could not record the uncompressed size of %s, its stored size is reported instead",
+                        this.blobInfo.getName()), e);
+            }
+        }
+    }
+}
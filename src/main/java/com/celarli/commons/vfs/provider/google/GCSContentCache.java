@@ -0,0 +1,151 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.storage.BlobId;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Holds the full content of small blobs in memory, keyed by bucket, name and generation so that a cached content
+ * can never be served for another version of a blob. The least recently used entries are evicted once the total
+ * size of the cached contents exceeds the configured size, or when the memory budget they are reserved from runs
+ * out. Contents are cached as readers see them, so gzip encoded blobs are held decoded.
+ */
+class GCSContentCache {
+
+    /**
+     * The maximum total size of the cached contents, in bytes
+     */
+    private final long maxSize;
+    /**
+     * The maximum size of a cached content, in bytes
+     */
+    private final long maxObjectSize;
+    /**
+     * The memory budget the cached contents are reserved from
+     */
+    private final GCSMemoryBudget budget;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+
+    /**
+     * Constructor
+     *
+     * @param maxSize       the maximum total size of the cached contents, the cache is disabled when not positive
+     * @param maxObjectSize the maximum size of a cached content
+     */
+    GCSContentCache(long maxSize, long maxObjectSize) {
+
+        this(maxSize, maxObjectSize, new GCSMemoryBudget(0));
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param maxSize       the maximum total size of the cached contents, the cache is disabled when not positive
+     * @param maxObjectSize the maximum size of a cached content
+     * @param budget        the memory budget the cached contents are reserved from
+     */
+    GCSContentCache(long maxSize, long maxObjectSize, @Nonnull GCSMemoryBudget budget) {
+
+        this.maxSize = maxSize;
+        this.maxObjectSize = Math.min(maxSize, maxObjectSize);
+        this.budget = budget;
+    }
+
+
+    /**
+     * Checks whether the content of the given blob can be cached
+     *
+     * @param blobId the blob, which must identify a generation
+     * @param size   the size of the content as read, null if unknown
+     * @return true if the blob is small enough to be cached
+     */
+    boolean isCacheable(@Nonnull BlobId blobId, @Nullable Long size) {
+
+        return this.maxSize > 0 && blobId.getGeneration() != null && size != null && size <= this.maxObjectSize;
+    }
+
+
+    @Nullable
+    synchronized byte[] get(@Nonnull BlobId blobId) {
+
+        return this.entries.get(key(blobId));
+    }
+
+
+    synchronized void put(@Nonnull BlobId blobId, @Nonnull byte[] content) {
+
+        if (content.length > this.maxObjectSize) {
+            return;
+        }
+
+        byte[] previous = this.entries.remove(key(blobId));
+        if (previous != null) {
+            release(previous);
+        }
+
+        // Make room within the size of the cache first, then within the memory budget
+        Iterator<Map.Entry<String, byte[]>> iterator = this.entries.entrySet().iterator();
+        while (this.size + content.length > this.maxSize && iterator.hasNext()) {
+            release(iterator.next().getValue());
+            iterator.remove();
+        }
+
+        boolean reserved = this.budget.tryReserve(content.length);
+        while (!reserved && iterator.hasNext()) {
+            release(iterator.next().getValue());
+            iterator.remove();
+            reserved = this.budget.tryReserve(content.length);
+        }
+
+        if (reserved) {
+            this.entries.put(key(blobId), content);
+            this.size += content.length;
+        }
+    }
+
+
+    /**
+     * Evicts the least recently used content to give its memory back to the budget
+     *
+     * @return false if the cache was empty
+     */
+    synchronized boolean evictEldest() {
+
+        Iterator<Map.Entry<String, byte[]>> iterator = this.entries.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        release(iterator.next().getValue());
+        iterator.remove();
+        return true;
+    }
+
+
+    private void release(@Nonnull byte[] content) {
+
+        this.size -= content.length;
+        this.budget.release(content.length);
+    }
+
+
+    synchronized long getSize() {
+
+        return this.size;
+    }
+
+
+    @Nonnull
+    private static String key(@Nonnull BlobId blobId) {
+
+        return blobId.getBucket() + '\n' + blobId.getName() + '\n' + blobId.getGeneration();
+    }
+}
@@ -2,19 +2,21 @@ package com.celarli.commons.vfs.provider.google;
 
 import com.google.api.gax.paging.Page;
 import com.google.auth.Credentials;
-import com.google.cloud.ReadChannel;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Bucket;
 import com.google.cloud.storage.CopyWriter;
 import com.google.cloud.storage.Storage;
+import com.google.common.io.ByteStreams;
 import org.apache.commons.net.io.CopyStreamListener;
 import org.apache.commons.net.io.Util;
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileNotFolderException;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSelector;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.NameScope;
 import org.apache.commons.vfs2.Selectors;
@@ -26,14 +28,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.String.format;
 import static java.util.Objects.isNull;
@@ -47,28 +55,39 @@ public class GCSFileObject extends AbstractFileObject {
 
     private static final Logger log = LoggerFactory.getLogger(GCSFileObject.class);
     /**
-     * The GCS client
+     * The GCS client sending the requests of the scheduler
      */
     private final Storage storage;
+    /**
+     * The GCS client carrying the uploads, downloads and copies
+     */
+    private final Storage transferStorage;
     /**
      * The current blob object
      */
     private Blob currentBlob = null;
+    /**
+     * The blob as returned by a listing, used on next attach instead of getting it again
+     */
+    private Blob listedBlob = null;
 
     private static Tika tika = new Tika();
 
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
 
     /**
      * Constructor
      *
      * @param name    the file name
      * @param fs      the file system object
-     * @param storage the GCS client
+     * @param storage the GCS client sending the requests of the scheduler
      */
     GCSFileObject(@Nonnull AbstractFileName name, @Nonnull GCSFileSystem fs, @Nonnull Storage storage) {
 
         super(name, fs);
         this.storage = storage;
+        this.transferStorage = fs.getTransferStorage();
     }
 
 
@@ -97,10 +116,7 @@ public class GCSFileObject extends AbstractFileObject {
             return FileType.FOLDER;
         }
 
-        Bucket bucket = this.storage.get(urlFileName.getHostName());
-        if (bucket == null || !bucket.exists()) {
-            throw new IllegalArgumentException(format("Bucket %s does not exists", urlFileName.getHostName()));
-        }
+        Bucket bucket = getBucket();
 
         String path = urlFileName.getPath();
 
@@ -108,9 +124,10 @@ public class GCSFileObject extends AbstractFileObject {
             path = path.substring(1);
         }
 
-        Blob blob = bucket.get(path);
+        final String blobPath = path;
+        Blob blob = execute(true, () -> bucket.get(blobPath));
 
-        if (blob != null && blob.exists()) {
+        if (blob != null && execute(true, blob::exists)) {
             log.debug(format("File :%s exists on bucket", this.getName()));
             return FileType.FILE;
         }
@@ -135,7 +152,9 @@ public class GCSFileObject extends AbstractFileObject {
                 }
 
                 log.debug(format("listing directory :%s", url));
-                blobs = bucket.list(Storage.BlobListOption.currentDirectory(), Storage.BlobListOption.prefix(url));
+                final String prefix = url;
+                blobs = execute(true, () -> bucket.list(Storage.BlobListOption.currentDirectory(),
+                        Storage.BlobListOption.prefix(prefix)));
             }
             if (blobs.getValues().iterator().hasNext()) {
                 return FileType.FOLDER;
@@ -152,24 +171,29 @@ public class GCSFileObject extends AbstractFileObject {
 
         log.debug(format("Listing directory below:%s", this.getName().toString()));
         URLFileName urlFileName = (URLFileName) this.getName();
-        Bucket bucket = this.storage.get(urlFileName.getHostName());
-        if (bucket == null || !bucket.exists()) {
-            throw new IllegalArgumentException(format("Bucket %s does not exists", urlFileName.getHostName()));
-        }
+        Bucket bucket = getBucket();
 
         String url = computePostfix(urlFileName);
         if (url.startsWith("/")) {
             url = url.substring(1);
         }
 
-        Page<Blob> blobs = bucket.list(Storage.BlobListOption.currentDirectory(), Storage.BlobListOption.prefix(url));
+        final String prefix = url;
+        Page<Blob> blobs = execute(true, () -> bucket.list(Storage.BlobListOption.currentDirectory(),
+                Storage.BlobListOption.prefix(prefix)));
 
         List<String> childrenList = new ArrayList<>();
-        for (Blob blob : blobs.iterateAll()) {
-            String name = blob.getName();
-            if (!name.equalsIgnoreCase(url)) {
-                childrenList.add("/" + name);
+        while (blobs != null) {
+            for (Blob blob : blobs.getValues()) {
+                String name = blob.getName();
+                if (!name.equalsIgnoreCase(url)) {
+                    childrenList.add("/" + name);
+                }
             }
+
+            // Each page goes through the scheduler
+            Page<Blob> page = blobs;
+            blobs = page.hasNextPage() ? execute(true, page::getNextPage) : null;
         }
         String[] ret = new String[childrenList.size()];
         childrenList.toArray(ret);
@@ -191,6 +215,21 @@ public class GCSFileObject extends AbstractFileObject {
     @Override
     protected long doGetContentSize() throws Exception {
 
+        return GCSCompression.getContentSize(this.currentBlob);
+    }
+
+
+    /**
+     * Returns the number of bytes stored in GCS for this file, which differs from the content size when the blob is
+     * gzip encoded.
+     *
+     * @return the stored size
+     * @throws FileSystemException if the file could not be attached
+     */
+    public long getStoredSize() throws FileSystemException {
+
+        // Attaches the file
+        getContent().getSize();
         return this.currentBlob.getSize();
     }
 
@@ -199,8 +238,86 @@ public class GCSFileObject extends AbstractFileObject {
     @Override
     protected InputStream doGetInputStream() throws Exception {
 
-        final ReadChannel readChannel = this.storage.reader(this.currentBlob.getBlobId());
-        return Channels.newInputStream(readChannel);
+        byte[] content = readCacheableContent();
+        if (content != null) {
+            // Cached contents are already decoded
+            return new ByteArrayInputStream(content);
+        }
+        return newBlobInputStream();
+    }
+
+
+    /**
+     * Opens a stream reading the content of the blob through the scheduler, decompressing gzip encoded blobs
+     */
+    @Nonnull
+    private InputStream newBlobInputStream() throws IOException {
+
+        InputStream inputStream = new GCSBlobInputStream(this, this.storage, this.currentBlob.getBlobId());
+        if (GCSCompression.isCompressed(this.currentBlob)) {
+            return GCSCompression.decompress(inputStream);
+        }
+        return inputStream;
+    }
+
+
+    /**
+     * Reads the content of the blob through the small object cache, if the blob is small enough to be cached. The
+     * content of gzip encoded blobs is cached decoded, provided they record their uncompressed size.
+     *
+     * @return the content of the blob, or null if it is not cacheable
+     * @throws Exception if the content could not be read
+     */
+    private byte[] readCacheableContent() throws Exception {
+
+        GCSContentCache contentCache = ((GCSFileSystem) getFileSystem()).getContentCache();
+        BlobId blobId = this.currentBlob.getBlobId();
+        Long size = GCSCompression.isCompressed(this.currentBlob)
+                ? GCSCompression.getUncompressedSize(this.currentBlob)
+                : this.currentBlob.getSize();
+        if (!contentCache.isCacheable(blobId, size)) {
+            return null;
+        }
+
+        byte[] content = contentCache.get(blobId);
+        if (content == null) {
+            // The blob id holds the generation, so a newer version is never cached under this one
+            if (GCSCompression.isCompressed(this.currentBlob)) {
+                // Whole-object reads are decoded by the transport, so the stored content goes through the reader
+                try (InputStream inputStream = newBlobInputStream()) {
+                    content = ByteStreams.toByteArray(inputStream);
+                }
+            }
+            else {
+                content = execute(true, () -> this.storage.readAllBytes(blobId));
+            }
+            contentCache.put(blobId, content);
+        }
+        return content;
+    }
+
+
+    /**
+     * Returns the content of this file as a read-only buffer, served from the small object cache.
+     *
+     * @return the content, decoded if gzip encoded, or null if the cache is disabled or the blob is too large to be
+     * cached or does not record its uncompressed size
+     * @throws FileSystemException if the file could not be attached or read
+     */
+    public ByteBuffer getCachedContent() throws FileSystemException {
+
+        if (!getType().hasContent()) {
+            return null;
+        }
+
+        byte[] content;
+        try {
+            content = readCacheableContent();
+        }
+        catch (Exception e) {
+            throw new FileSystemException("vfs.provider/read.error", this, e);
+        }
+        return content != null ? ByteBuffer.wrap(content).asReadOnlyBuffer() : null;
     }
 
 
@@ -233,20 +350,109 @@ public class GCSFileObject extends AbstractFileObject {
     @Override
     protected void doAttach() throws Exception {
 
-        URLFileName urlFileName = (URLFileName) this.getName();
+        if (this.listedBlob != null) {
+            // Attached from a listing, no need to get the blob again
+            this.currentBlob = this.listedBlob;
+            this.listedBlob = null;
+            return;
+        }
 
-        Bucket bucket = this.storage.get(urlFileName.getHostName());
+        URLFileName urlFileName = (URLFileName) this.getName();
 
-        if (bucket == null || !bucket.exists()) {
-            throw new IllegalArgumentException(format("Bucket %s does not exists", urlFileName.getHostName()));
-        }
+        Bucket bucket = getBucket();
 
         String path = urlFileName.getPath();
 
         if (!path.equals("/") && path.startsWith("/")) {
             path = path.substring(1);
         }
-        this.currentBlob = bucket.get(path);
+        final String blobPath = path;
+        this.currentBlob = execute(true, () -> bucket.get(blobPath));
+    }
+
+
+    /**
+     * Gets the bucket holding this file
+     *
+     * @return the bucket
+     * @throws IllegalArgumentException if the bucket does not exist
+     * @throws Exception                if the bucket could not be fetched
+     */
+    @Nonnull
+    private Bucket getBucket() throws Exception {
+
+        String bucketName = getBucketName();
+        Bucket bucket = execute(true, () -> this.storage.get(bucketName));
+
+        if (bucket == null || !execute(true, bucket::exists)) {
+            throw new IllegalArgumentException(format("Bucket %s does not exists", bucketName));
+        }
+        return bucket;
+    }
+
+
+    /**
+     * Sends a request against the bucket of this file through the scheduler of the file system
+     *
+     * @param idempotent whether the request only reads, so it can be hedged
+     * @param request    the request
+     * @param <T>        the type of the response
+     * @return the response
+     * @throws Exception if the request failed
+     */
+    <T> T execute(boolean idempotent, Callable<T> request) throws Exception {
+
+        return ((GCSFileSystem) getFileSystem()).getScheduler().execute(getBucketName(), idempotent, request);
+    }
+
+
+    /**
+     * Deletes the selected files below this one. Blobs are listed page by page and deleted by parallel workers while
+     * the listing goes on, instead of being collected first.
+     *
+     * @param selector selects the files to delete
+     * @return the number of deleted files
+     * @throws FileSystemException if a file could not be deleted
+     */
+    @Override
+    public int delete(FileSelector selector) throws FileSystemException {
+
+        FileType type = getType();
+        if (type == FileType.IMAGINARY || type.hasContent()) {
+            return super.delete(selector);
+        }
+
+        int threads = GcsFileSystemConfigBuilder.getInstance().getTransferThreads(getFileSystem().getFileSystemOptions());
+        AtomicInteger deleted = new AtomicInteger();
+
+        new GCSTreeWalker(((GCSFileSystem) getFileSystem()).getRuntime(), threads).walk(this, selector, file -> {
+            // A walk below a GCS file only hands out files of its file system
+            GCSFileObject gcsFile = (GCSFileObject) file;
+            String blobName;
+            if (gcsFile.getType().hasContent()) {
+                blobName = gcsFile.getBlobPath();
+            }
+            else {
+                // Folders only exist through their placeholder, if any
+                blobName = computePostfix((URLFileName) gcsFile.getName()).substring(1);
+                if (blobName.isEmpty()) {
+                    return;
+                }
+            }
+
+            if (execute(false, () -> this.storage.delete(BlobId.of(getBucketName(), blobName)))) {
+                // As after doDelete, so the listeners and the children of the parent learn about it
+                gcsFile.handleDelete();
+                deleted.incrementAndGet();
+            }
+        });
+
+        refresh();
+        FileObject parent = getParent();
+        if (parent != null) {
+            parent.refresh();
+        }
+        return deleted.get();
     }
 
 
@@ -254,21 +460,47 @@ public class GCSFileObject extends AbstractFileObject {
     protected void doDelete() throws Exception {
 
         getCurrentBlob();
-        this.currentBlob.delete();
+        execute(false, this.currentBlob::delete);
     }
 
 
     @Nonnull
     @Override
-    protected OutputStream doGetOutputStream(boolean bAppend) {
+    protected OutputStream doGetOutputStream(boolean bAppend) throws Exception {
+
+        return newOutputStream(newBlobInfo(true));
+    }
+
 
-        getCurrentBlob(true);
-        return Channels.newOutputStream(this.currentBlob.writer());
+    /**
+     * Creates the given blob and opens a stream writing its content, compressed if the blob is gzip encoded
+     *
+     * @param blobInfo the blob to create
+     * @return the stream
+     * @throws IOException if the stream could not be opened
+     */
+    @Nonnull
+    private OutputStream newOutputStream(@Nonnull BlobInfo blobInfo) throws IOException {
+
+        this.currentBlob = this.transferStorage.create(blobInfo);
+        OutputStream outputStream = Channels.newOutputStream(this.currentBlob.writer());
+
+        if (GCSCompression.isCompressed(this.currentBlob)) {
+            return GCSCompression.compress(outputStream, this.transferStorage, this.currentBlob);
+        }
+        return outputStream;
     }
 
 
     private void getCurrentBlob(boolean detectContentType) {
 
+        this.currentBlob = this.transferStorage.create(newBlobInfo(detectContentType));
+    }
+
+
+    @Nonnull
+    private BlobInfo newBlobInfo(boolean detectContentType) {
+
         URLFileName urlFileName = (URLFileName) this.getName();
 
         String path = urlFileName.getPath();
@@ -284,16 +516,65 @@ public class GCSFileObject extends AbstractFileObject {
 
         BlobInfo blobInfo;
         if (detectContentType) {
-            String fileName = getName().getBaseName();
-            String contentType = tika.detect(fileName);
+            String contentType = detectContentType();
 
-            blobInfo = BlobInfo.newBuilder(urlFileName.getHostName(), path).setContentType(contentType).build();
+            BlobInfo.Builder builder = BlobInfo.newBuilder(urlFileName.getHostName(), path).setContentType(contentType);
+            if (isCompressedUpload(contentType)) {
+                builder.setContentEncoding(GCSCompression.GZIP_ENCODING);
+            }
+            blobInfo = builder.build();
         }
         else {
             blobInfo = BlobInfo.newBuilder(urlFileName.getHostName(), path).build();
         }
 
-        this.currentBlob = storage.create(blobInfo);
+        return blobInfo;
+    }
+
+
+    /**
+     * Builds the blob an upload of the given file creates, recording the modification time of the file so that
+     * syncs can tell it is unchanged without reading it, and the uncompressed size of compressed blobs.
+     *
+     * @param srcFile the file to upload
+     * @return the blob
+     * @throws FileSystemException if the size or modification time of the file could not be read
+     */
+    @Nonnull
+    private BlobInfo newBlobInfo(@Nonnull FileObject srcFile) throws FileSystemException {
+
+        BlobInfo blobInfo = newBlobInfo(true);
+        Map<String, String> metadata = new HashMap<>();
+        if (GCSCompression.isCompressed(blobInfo)) {
+            metadata.put(GCSCompression.UNCOMPRESSED_SIZE, String.valueOf(srcFile.getContent().getSize()));
+        }
+        if (srcFile.getFileSystem().hasCapability(Capability.GET_LAST_MODIFIED)) {
+            metadata = GCSSync.modifiedTimeMetadata(metadata, srcFile.getContent().getLastModifiedTime());
+        }
+
+        return metadata.isEmpty() ? blobInfo : blobInfo.toBuilder().setMetadata(metadata).build();
+    }
+
+
+    @Nonnull
+    private String detectContentType() {
+
+        String fileName = getName().getBaseName();
+        return tika.detect(fileName);
+    }
+
+
+    /**
+     * Checks whether content written to this file is gzip compressed, either because compression is enabled for the
+     * whole file system or because the content type is one of the compressed ones.
+     */
+    private boolean isCompressedUpload(String contentType) {
+
+        FileSystemOptions fileSystemOptions = getFileSystem().getFileSystemOptions();
+        GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+
+        return builder.getGzipEnabled(fileSystemOptions)
+                || GCSCompression.matches(contentType, builder.getGzipContentTypes(fileSystemOptions));
     }
 
 
@@ -376,7 +657,8 @@ public class GCSFileObject extends AbstractFileObject {
             }
             String bucket = urlFileName.getHostName();
             GCSFileObject gcsFile = (GCSFileObject) file;
-            CopyWriter copyWriter = gcsFile.currentBlob.copyTo(BlobId.of(bucket, path));
+            CopyWriter copyWriter = this.transferStorage.copy(
+                    Storage.CopyRequest.of(gcsFile.currentBlob.getBlobId(), BlobId.of(bucket, path)));
             try {
                 //Need to reset file type after copy operation
                 this.injectType(this.doGetType());
@@ -413,44 +695,287 @@ public class GCSFileObject extends AbstractFileObject {
     private void copyThroughStream(FileObject file, FileSelector selector, CopyStreamListener copyStreamListener)
             throws FileSystemException {
 
-        // Locate the files to copy across
-        final ArrayList<FileObject> files = new ArrayList();
-        file.findFiles(selector, false, files);
+        copyTree(file, this, selector, copyStreamListener);
+    }
+
+
+    /**
+     * Copies the selected files below the source to the destination. Files are streamed to parallel copy workers
+     * while the source is walked, instead of being collected first. With a listener, the files are copied one after
+     * the other, so the listener follows a single stream at a time.
+     *
+     * @param source             the file or folder to copy from
+     * @param destination        the file or folder to copy to
+     * @param selector           selects the files to copy
+     * @param copyStreamListener the listener notified of the progress, one copy at a time, may be null
+     * @throws FileSystemException if a file could not be copied
+     */
+    private void copyTree(FileObject source, FileObject destination, FileSelector selector,
+            CopyStreamListener copyStreamListener) throws FileSystemException {
 
-        // Copy everything across
-        final int count = files.size();
-        for (int i = 0; i < count; i++) {
-            final FileObject srcFile = files.get(i);
+        int threads = copyStreamListener != null ? 0
+                : GcsFileSystemConfigBuilder.getInstance().getTransferThreads(getFileSystem().getFileSystemOptions());
 
+        GCSRuntime runtime = ((GCSFileSystem) getFileSystem()).getRuntime();
+        new GCSTreeWalker(runtime, threads).walk(source, selector, srcFile -> {
             // Determine the destination file
-            final String relPath = file.getName().getRelativeName(srcFile.getName());
-            final FileObject destFile = resolveFile(relPath, NameScope.DESCENDENT_OR_SELF);
-
-            // Clean up the destination file, if necessary
-            if (destFile.exists() && destFile.getType() != srcFile.getType()) {
-                // The destination file exists, and is not of the same type, so delete it
-                // TODO - add a pluggable policy for deleting and overwriting existing files
-                destFile.delete(Selectors.SELECT_ALL);
-            }
+            final String relPath = source.getName().getRelativeName(srcFile.getName());
+            final FileObject destFile = destination.resolveFile(relPath, NameScope.DESCENDENT_OR_SELF);
 
-            // Copy across
             try {
-                if (srcFile.getType().hasContent()) {
-                    try (InputStream inputStream = srcFile.getContent().getInputStream();
-                            OutputStream outputStream = destFile.getContent().getOutputStream()) {
+                // Clean up the destination file, if necessary
+                if (destFile.exists() && destFile.getType() != srcFile.getType()) {
+                    // The destination file exists, and is not of the same type, so delete it
+                    // TODO - add a pluggable policy for deleting and overwriting existing files
+                    destFile.delete(Selectors.SELECT_ALL);
+                }
 
-                        Util.copyStream(inputStream, outputStream,
-                                Util.DEFAULT_COPY_BUFFER_SIZE, srcFile.getContent().getSize(), copyStreamListener);
-                    }
+                // Copy across
+                copyContent(srcFile, destFile, copyStreamListener);
+            }
+            finally {
+                if (destFile != destination) {
+                    GCSTreeWalker.release(destFile);
                 }
-                else if (srcFile.getType().hasChildren()) {
+            }
+        });
+    }
+
+
+    /**
+     * Copies the content of a single file, or creates the destination folder when the source is a folder.
+     *
+     * @param srcFile            the file to copy from
+     * @param destFile           the file to copy to
+     * @param copyStreamListener the listener notified of the progress, may be null
+     * @throws FileSystemException if the copy failed
+     */
+    static void copyContent(FileObject srcFile, FileObject destFile, CopyStreamListener copyStreamListener)
+            throws FileSystemException {
+
+        try {
+            if (!srcFile.getType().hasContent()) {
+                if (srcFile.getType().hasChildren()) {
                     destFile.createFolder();
                 }
+                return;
             }
-            catch (final IOException e) {
-                throw new FileSystemException("vfs.provider/copy-file.error", new Object[] { srcFile, destFile }, e);
+
+            File localSrcFile = GCSLocalTransfer.toLocalFile(srcFile);
+            File localDestFile = GCSLocalTransfer.toLocalFile(destFile);
+
+            // Compressed content goes through streams, channels transfer it as is
+            boolean compressedDest = destFile instanceof GCSFileObject
+                    && ((GCSFileObject) destFile).isCompressedUpload(((GCSFileObject) destFile).detectContentType());
+            boolean compressedSrc = srcFile instanceof GCSFileObject
+                    && GCSCompression.isCompressed(((GCSFileObject) srcFile).currentBlob);
+
+            if (compressedDest || compressedSrc) {
+                copyStream(srcFile, destFile, copyStreamListener);
+            }
+            else if (isResumableUpload(destFile)) {
+                ((GCSFileObject) destFile).uploadResumable(srcFile, copyStreamListener);
+                //Required to drop the metadata of the blob as it was before the upload
+                destFile.refresh();
+            }
+            else if (destFile instanceof GCSFileObject && localSrcFile != null) {
+                ((GCSFileObject) destFile).uploadFromLocal(srcFile, localSrcFile, copyStreamListener);
+                destFile.refresh();
+            }
+            else if (srcFile instanceof GCSFileObject && localDestFile != null) {
+                ((GCSFileObject) srcFile).downloadToLocal(localDestFile, copyStreamListener);
+                destFile.refresh();
+            }
+            else {
+                copyStream(srcFile, destFile, copyStreamListener);
             }
         }
+        catch (final IOException e) {
+            throw new FileSystemException("vfs.provider/copy-file.error", new Object[] { srcFile, destFile }, e);
+        }
+    }
+
+
+    private static void copyStream(FileObject srcFile, FileObject destFile,
+            CopyStreamListener copyStreamListener) throws IOException {
+
+        // Blobs are written directly, so they record the modification time of their source
+        GCSFileObject gcsDestFile = destFile instanceof GCSFileObject ? (GCSFileObject) destFile : null;
+        try (InputStream inputStream = srcFile.getContent().getInputStream();
+                OutputStream outputStream = gcsDestFile != null
+                        ? gcsDestFile.newOutputStream(gcsDestFile.newBlobInfo(srcFile))
+                        : destFile.getContent().getOutputStream()) {
+
+            Util.copyStream(inputStream, outputStream,
+                    COPY_BUFFER_SIZE, srcFile.getContent().getSize(), copyStreamListener);
+        }
+
+        if (gcsDestFile != null) {
+            //Required to drop the metadata of the blob as it was before the upload
+            gcsDestFile.refresh();
+        }
+    }
+
+
+    private static boolean isResumableUpload(FileObject destFile) {
+
+        return destFile instanceof GCSFileObject && GcsFileSystemConfigBuilder.getInstance()
+                .getResumableUploads(destFile.getFileSystem().getFileSystemOptions());
+    }
+
+
+    /**
+     * Uploads the content of the given file through a checkpointed resumable session, continuing a previously
+     * interrupted upload of the same file if there is one.
+     *
+     * @param srcFile            the file to upload
+     * @param copyStreamListener the listener notified of the progress, may be null
+     * @throws IOException if the upload failed
+     */
+    private void uploadResumable(FileObject srcFile, CopyStreamListener copyStreamListener) throws IOException {
+
+        FileSystemOptions fileSystemOptions = getFileSystem().getFileSystemOptions();
+        GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+
+        GCSMemoryBudget budget = ((GCSFileSystem) getFileSystem()).getRuntime().getMemoryBudget();
+        new GCSResumableUpload(this.transferStorage, builder.getUploadStateStore(fileSystemOptions), budget,
+                builder.getUploadChunkSize(fileSystemOptions))
+                .upload(srcFile, newBlobInfo(srcFile), copyStreamListener);
+    }
+
+
+    /**
+     * Uploads a local file to the blob backing this file through NIO channels.
+     *
+     * @param srcFile            the file to upload
+     * @param file               the local file behind it
+     * @param copyStreamListener the listener notified of the progress, may be null
+     * @throws IOException if the upload failed
+     */
+    private void uploadFromLocal(FileObject srcFile, File file, CopyStreamListener copyStreamListener)
+            throws IOException {
+
+        GCSFileSystem fileSystem = (GCSFileSystem) getFileSystem();
+        int chunkSize = GcsFileSystemConfigBuilder.getInstance().getUploadChunkSize(fileSystem.getFileSystemOptions());
+        GCSLocalTransfer.upload(this.transferStorage, fileSystem.getRuntime().getMemoryBudget(), newBlobInfo(srcFile),
+                file, chunkSize, copyStreamListener);
+    }
+
+
+    /**
+     * Downloads the blob backing this file to a local file, in parallel ranges for large blobs.
+     *
+     * @param file               the local file to write
+     * @param copyStreamListener the listener notified of the progress, may be null
+     * @throws IOException if the download failed
+     */
+    private void downloadToLocal(File file, CopyStreamListener copyStreamListener) throws IOException {
+
+        GCSFileSystem fileSystem = (GCSFileSystem) getFileSystem();
+        int threads = GcsFileSystemConfigBuilder.getInstance().getTransferThreads(fileSystem.getFileSystemOptions());
+        GCSLocalTransfer.download(this.transferStorage, fileSystem.getRuntime(), this.currentBlob, file, threads,
+                copyStreamListener);
+    }
+
+
+    /**
+     * Copies this file and its descendants to the given file. Local destinations are written straight from the blob
+     * readers, large blobs being downloaded in parallel ranges.
+     *
+     * @param file               the file to copy to
+     * @param selector           selects the files to copy
+     * @param copyStreamListener the listener notified of the progress, may be null
+     * @throws FileSystemException if a file could not be copied
+     */
+    public void copyTo(FileObject file, FileSelector selector, CopyStreamListener copyStreamListener)
+            throws FileSystemException {
+
+        if (!exists()) {
+            throw new FileSystemException("vfs.provider/copy-missing-file.error", this);
+        }
+
+        copyTree(this, file, selector, copyStreamListener);
+    }
+
+
+    /**
+     * Mirrors the files of the given source below this file. Only new or changed files are transferred, unchanged
+     * ones are detected by comparing size, checksums and modification time.
+     *
+     * @param file               the file or folder to mirror
+     * @param selector           selects the source files to mirror
+     * @param deleteExtraneous   whether blobs below this file which do not exist in the source must be deleted
+     * @param copyStreamListener the listener notified of the progress of each transfer, may be null
+     * @return the outcome of the sync
+     * @throws FileSystemException if a file could not be transferred or deleted
+     */
+    public GCSSyncResult sync(FileObject file, FileSelector selector, boolean deleteExtraneous,
+            CopyStreamListener copyStreamListener) throws FileSystemException {
+
+        if (!file.exists()) {
+            throw new FileSystemException("vfs.provider/copy-missing-file.error", file);
+        }
+
+        int threads = GcsFileSystemConfigBuilder.getInstance().getTransferThreads(getFileSystem().getFileSystemOptions());
+        GCSSyncResult result = new GCSSync(this, this.storage, threads).run(file, selector, deleteExtraneous,
+                copyStreamListener);
+
+        try {
+            //Required to refresh blob once it is synced to get updated metadata of blob, i.e. size
+            this.doAttach();
+        }
+        catch (Exception e) {
+            //swallowed intentionally to continue working further
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Attaches this file to a blob returned by a listing, unless it is already attached
+     *
+     * @param blob the listed blob
+     */
+    void attachListedBlob(Blob blob) {
+
+        if (!isAttached()) {
+            this.listedBlob = blob;
+            injectType(FileType.FILE);
+        }
+    }
+
+
+    /**
+     * Returns the blob backing this file, as of the last time it was attached
+     */
+    Blob getBlob() {
+
+        return this.currentBlob;
+    }
+
+
+    /**
+     * Returns the name of the bucket holding this file
+     */
+    @Nonnull
+    String getBucketName() {
+
+        return ((URLFileName) this.getName()).getHostName();
+    }
+
+
+    /**
+     * Returns the name of the blob backing this file, without the leading slash
+     */
+    @Nonnull
+    String getBlobPath() {
+
+        String path = ((URLFileName) this.getName()).getPath();
+        if (!path.equals("/") && path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return path;
     }
 
 
@@ -461,7 +986,7 @@ public class GCSFileObject extends AbstractFileObject {
      * @param sourceFileObject
      * @return
      */
-    private boolean canCopyServerSide(FileObject sourceFileObject) {
+    boolean canCopyServerSide(FileObject sourceFileObject) {
 
         if (sourceFileObject instanceof GCSFileObject) {
             GCSFileObject gcsFileObject = (GCSFileObject) sourceFileObject;
@@ -502,7 +1027,8 @@ public class GCSFileObject extends AbstractFileObject {
 
 
     /**
-     * Generate signed url to directly access file.
+     * Generate signed url to directly access file. Use {@link GCSFileSystem#signedURLs} to sign many urls without
+     * fetching the metadata of each file.
      *
      * @param duration - in seconds
      * @return
@@ -515,7 +1041,8 @@ public class GCSFileObject extends AbstractFileObject {
         }
 
         if (nonNull(this.currentBlob)) {
-            return this.currentBlob.signUrl(duration, TimeUnit.SECONDS);
+            return ((GCSFileSystem) getFileSystem()).getUrlSigner()
+                    .sign(this.currentBlob.getBucket(), this.currentBlob.getName(), duration);
         }
 
         return null;
@@ -1,6 +1,5 @@
 package com.celarli.commons.vfs.provider.google;
 
-import com.google.cloud.storage.Storage;
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileSystem;
@@ -37,9 +36,12 @@ public class GCSFileProvider extends AbstractOriginatingFileProvider {
     @Override
     protected FileSystem doCreateFileSystem(FileName fileName, FileSystemOptions fileSystemOptions) {
 
-        Storage storage = GCSClientFactory.getClient(fileSystemOptions);
+        GCSRuntime runtime = GcsFileSystemConfigBuilder.getInstance().getRuntime(fileSystemOptions);
+        if (runtime != null) {
+            return new GCSFileSystem(fileName, fileSystemOptions, runtime, false);
+        }
 
-        return new GCSFileSystem(fileName, fileSystemOptions, storage);
+        return new GCSFileSystem(fileName, fileSystemOptions, new GCSRuntime(fileSystemOptions), true);
     }
 
 
@@ -7,10 +7,14 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileSystem;
+import org.apache.commons.vfs2.provider.URLFileName;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.net.URL;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 /**
@@ -19,9 +23,29 @@ import java.util.Collection;
 public class GCSFileSystem extends AbstractFileSystem {
 
     /**
-     * The GCS client
+     * The GCS client sending the requests of the scheduler, which does not retry them itself
      */
     private final Storage storage;
+    /**
+     * The GCS client carrying the uploads, downloads and copies, retrying their requests
+     */
+    private final Storage transferStorage;
+    /**
+     * The runtime holding the transport, threads and limits, possibly shared with other file systems
+     */
+    private final GCSRuntime runtime;
+    /**
+     * Whether the runtime belongs to this file system alone, and is closed with it
+     */
+    private final boolean ownsRuntime;
+    /**
+     * Schedules the metadata, listing and read requests
+     */
+    private final GCSRequestScheduler scheduler;
+    /**
+     * Signs and caches the URLs of the blobs
+     */
+    private final GCSUrlSigner urlSigner;
 
 
     /**
@@ -29,12 +53,22 @@ public class GCSFileSystem extends AbstractFileSystem {
      *
      * @param rootName          the file system root name
      * @param fileSystemOptions the file system options
-     * @param storage           the GCS client
+     * @param runtime           the runtime holding the transport, threads and limits
+     * @param ownsRuntime       whether the runtime is closed with this file system
      */
-    GCSFileSystem(@Nonnull FileName rootName, @Nullable FileSystemOptions fileSystemOptions, @Nonnull Storage storage) {
+    GCSFileSystem(@Nonnull FileName rootName, @Nullable FileSystemOptions fileSystemOptions,
+            @Nonnull GCSRuntime runtime, boolean ownsRuntime) {
 
         super(rootName, null, fileSystemOptions);
-        this.storage = storage;
+        this.runtime = runtime;
+        this.ownsRuntime = ownsRuntime;
+        this.storage = runtime.getClient(fileSystemOptions, true);
+        this.transferStorage = runtime.getClient(fileSystemOptions, false);
+
+        GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+        this.scheduler = new GCSRequestScheduler(runtime, builder.getMaxRetries(fileSystemOptions),
+                builder.getHedgedRequests(fileSystemOptions));
+        this.urlSigner = new GCSUrlSigner(this.storage);
     }
 
 
@@ -53,6 +87,121 @@ public class GCSFileSystem extends AbstractFileSystem {
     }
 
 
+    /**
+     * Returns the runtime holding the transport, threads and limits
+     *
+     * @return the runtime
+     */
+    @Nonnull
+    GCSRuntime getRuntime() {
+
+        return this.runtime;
+    }
+
+
+    /**
+     * Returns the GCS client whose requests are sent through the scheduler, see {@link #getScheduler()}
+     *
+     * @return the GCS client
+     */
+    @Nonnull
+    Storage getStorage() {
+
+        return this.storage;
+    }
+
+
+    /**
+     * Returns the GCS client carrying the uploads, downloads and copies
+     *
+     * @return the GCS client
+     */
+    @Nonnull
+    Storage getTransferStorage() {
+
+        return this.transferStorage;
+    }
+
+
+    /**
+     * Returns the scheduler of the metadata, listing and read requests
+     *
+     * @return the scheduler
+     */
+    @Nonnull
+    GCSRequestScheduler getScheduler() {
+
+        return this.scheduler;
+    }
+
+
+    /**
+     * Returns the cache holding the content of small blobs
+     *
+     * @return the cache
+     */
+    @Nonnull
+    GCSContentCache getContentCache() {
+
+        return this.runtime.getContentCache();
+    }
+
+
+    /**
+     * Returns the signer of the URLs of the blobs
+     *
+     * @return the signer
+     */
+    @Nonnull
+    GCSUrlSigner getUrlSigner() {
+
+        return this.urlSigner;
+    }
+
+
+    /**
+     * Generates a signed url to directly access a file of the bucket, without checking the file exists.
+     *
+     * @param path     the path of the file within the bucket
+     * @param duration the validity of the url, in seconds
+     * @return the signed url, valid for at least the given duration
+     */
+    @Nonnull
+    public URL signedURL(@Nonnull String path, long duration) {
+
+        String name = path.startsWith("/") ? path.substring(1) : path;
+        return this.urlSigner.sign(((URLFileName) getRootName()).getHostName(), name, duration);
+    }
+
+
+    /**
+     * Generates signed urls to directly access several files of the bucket, without checking the files exist.
+     *
+     * @param paths    the paths of the files within the bucket
+     * @param duration the validity of the urls, in seconds
+     * @return the signed urls keyed by path, each valid for at least the given duration
+     */
+    @Nonnull
+    public Map<String, URL> signedURLs(@Nonnull Collection<String> paths, long duration) {
+
+        Map<String, URL> urls = new LinkedHashMap<>(paths.size() * 4 / 3 + 1);
+        for (String path : paths) {
+            urls.put(path, signedURL(path, duration));
+        }
+        return urls;
+    }
+
+
+    @Override
+    public void close() {
+
+        super.close();
+        if (this.ownsRuntime) {
+            this.runtime.close();
+        }
+    }
+
+
     /**
      * Adds capabilities to this driver
      *
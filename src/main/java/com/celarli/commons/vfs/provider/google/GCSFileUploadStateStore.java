@@ -0,0 +1,133 @@
+package com.celarli.commons.vfs.provider.google;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import static java.lang.String.format;
+
+
+/**
+ * Stores the checkpoints of resumable uploads as serialized files in a local directory. The directory is created
+ * readable by its owner only where the file system supports POSIX permissions, as checkpoints hold the upload ids.
+ * An existing directory keeps its permissions.
+ */
+public class GCSFileUploadStateStore implements GCSUploadStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSFileUploadStateStore.class);
+
+    private static final String EXTENSION = ".upload";
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    /**
+     * The directory holding the checkpoints
+     */
+    private final Path directory;
+
+
+    /**
+     * Constructor storing the checkpoints below the temporary directory
+     */
+    public GCSFileUploadStateStore() {
+
+        this(new File(System.getProperty("java.io.tmpdir"), "vfs-gcs-uploads"));
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param directory the directory holding the checkpoints
+     */
+    public GCSFileUploadStateStore(@Nonnull File directory) {
+
+        this.directory = directory.toPath();
+    }
+
+
+    @Nullable
+    @Override
+    public GCSUploadCheckpoint load(@Nonnull String key) throws IOException {
+
+        try (InputStream inputStream = Files.newInputStream(this.directory.resolve(key + EXTENSION));
+                ObjectInputStream objectInputStream = new ObjectInputStream(inputStream)) {
+
+            return (GCSUploadCheckpoint) objectInputStream.readObject();
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (ClassNotFoundException | InvalidClassException e) {
+            log.warn(format("Ignoring unreadable upload checkpoint %s", key), e);
+            return null;
+        }
+    }
+
+
+    @Override
+    public void save(@Nonnull String key, @Nonnull GCSUploadCheckpoint checkpoint) throws IOException {
+
+        createDirectory();
+
+        // Write aside then move so a crash never leaves a truncated checkpoint behind
+        Path temp = Files.createTempFile(this.directory, key, ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(temp);
+                    ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
+
+                objectOutputStream.writeObject(checkpoint);
+            }
+            Files.move(temp, this.directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+
+    private void createDirectory() throws IOException {
+
+        if (Files.isDirectory(this.directory)) {
+            return;
+        }
+
+        Files.createDirectories(this.directory.toAbsolutePath().getParent());
+        try {
+            if (this.directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.createDirectory(this.directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            }
+            else {
+                Files.createDirectory(this.directory);
+            }
+        }
+        catch (FileAlreadyExistsException e) {
+            // Created concurrently
+        }
+    }
+
+
+    @Override
+    public void remove(@Nonnull String key) throws IOException {
+
+        Files.deleteIfExists(this.directory.resolve(key + EXTENSION));
+    }
+}
@@ -0,0 +1,62 @@
+package com.celarli.commons.vfs.provider.google;
+
+import java.util.Arrays;
+
+
+/**
+ * Keeps the latencies of the most recent requests to estimate a latency percentile
+ */
+class GCSLatencyTracker {
+
+    private static final int SAMPLES = 256;
+
+    /**
+     * The percentile is not computed before this many samples are known
+     */
+    private static final int MIN_SAMPLES = 32;
+
+    /**
+     * The percentile is recomputed every time this many new samples are recorded
+     */
+    private static final int REFRESH_INTERVAL = 16;
+
+    private final double percentile;
+    private final long[] samples = new long[SAMPLES];
+    private int count = 0;
+    private int next = 0;
+    private long cachedPercentile = -1;
+
+
+    /**
+     * Constructor
+     *
+     * @param percentile the tracked percentile, between 0 and 1
+     */
+    GCSLatencyTracker(double percentile) {
+
+        this.percentile = Math.min(1, Math.max(0, percentile));
+    }
+
+
+    synchronized void record(long latencyMillis) {
+
+        this.samples[this.next] = latencyMillis;
+        this.next = (this.next + 1) % SAMPLES;
+        this.count++;
+
+        if (this.count >= MIN_SAMPLES && this.count % REFRESH_INTERVAL == 0) {
+            long[] sorted = Arrays.copyOf(this.samples, Math.min(this.count, SAMPLES));
+            Arrays.sort(sorted);
+            this.cachedPercentile = sorted[(int) Math.min(sorted.length - 1, Math.floor(this.percentile * sorted.length))];
+        }
+    }
+
+
+    /**
+     * Returns the tracked latency percentile in milliseconds, or -1 while there are not enough samples
+     */
+    synchronized long getPercentile() {
+
+        return this.cachedPercentile;
+    }
+}
@@ -0,0 +1,380 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import org.apache.commons.net.io.CopyStreamListener;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.local.LocalFileName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+
+/**
+ * Transfers content between blobs and local files through NIO channels, without going through streams. Channels
+ * are copied through a direct buffer kept by each thread, as the JDK would otherwise copy channels which are not
+ * both files through its own 8 KiB buffers. A transfer reserves that buffer in the memory budget while it uses it;
+ * a thread keeps its buffer between transfers, so up to one buffer per transfer thread and caller thread stays
+ * allocated outside of the budget.
+ */
+class GCSLocalTransfer {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSLocalTransfer.class);
+
+    /**
+     * Blobs are not split in ranges smaller than this when downloaded in parallel
+     */
+    private static final long MIN_RANGE_SIZE = 32L * 1024 * 1024;
+
+    /**
+     * The size of the buffer of each range reader
+     */
+    private static final int READ_CHUNK_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * The size of the direct buffer local files are read into and written from
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE));
+
+
+    private GCSLocalTransfer() {
+
+    }
+
+
+    /**
+     * Returns the local file behind the given file object, or null if it does not belong to the local file system
+     */
+    @Nullable
+    static File toLocalFile(@Nonnull FileObject fileObject) throws FileSystemException {
+
+        if (fileObject.getName() instanceof LocalFileName) {
+            LocalFileName name = (LocalFileName) fileObject.getName();
+            return new File(name.getRootFile() + name.getPathDecoded());
+        }
+        return null;
+    }
+
+
+    /**
+     * Uploads a local file to the given blob by transferring the file channel straight into the blob writer.
+     *
+     * @param storage            the GCS client
+     * @param budget             the memory budget the buffers of the upload are reserved from
+     * @param blobInfo           the blob to create
+     * @param file               the file to upload
+     * @param chunkSize          the size of the chunks sent to GCS
+     * @param copyStreamListener the listener notified of the progress, may be null
+     * @throws IOException if the upload failed, in which case the blob is left untouched
+     */
+    static void upload(@Nonnull Storage storage, @Nonnull GCSMemoryBudget budget, @Nonnull BlobInfo blobInfo,
+            @Nonnull File file, int chunkSize, @Nullable CopyStreamListener copyStreamListener) throws IOException {
+
+        long reserved = reserve(budget, (long) chunkSize + TRANSFER_BUFFER_SIZE);
+        try {
+            transferFile(storage, blobInfo, file, chunkSize, copyStreamListener);
+        }
+        finally {
+            budget.release(reserved);
+        }
+    }
+
+
+    private static void transferFile(@Nonnull Storage storage, @Nonnull BlobInfo blobInfo, @Nonnull File file,
+            int chunkSize, @Nullable CopyStreamListener copyStreamListener) throws IOException {
+
+        WriteChannel writer = storage.writer(blobInfo);
+        writer.setChunkSize(chunkSize);
+
+        ByteBuffer buffer = TRANSFER_BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                // Through Buffer, as ByteBuffer only overrides these methods from Java 9
+                ((Buffer) buffer).clear().limit((int) Math.min(buffer.capacity(), size - position));
+                int transferred = channel.read(buffer, position);
+                if (transferred <= 0) {
+                    throw new EOFException(format("%s was truncated while being uploaded", file));
+                }
+
+                ((Buffer) buffer).flip();
+                while (buffer.hasRemaining()) {
+                    writer.write(buffer);
+                }
+                position += transferred;
+
+                if (copyStreamListener != null) {
+                    copyStreamListener.bytesTransferred(position, transferred, size);
+                }
+            }
+        }
+
+        // Only close once everything has been transferred, closing finalizes the blob
+        writer.close();
+    }
+
+
+    /**
+     * Downloads a blob to a local file. The content is written to a temporary file next to it, which replaces the
+     * file once complete, so a failed download never leaves a partial file behind. The temporary file is
+     * preallocated and large blobs are split in ranges which are written in parallel, each by its own reader.
+     *
+     * @param storage            the GCS client
+     * @param runtime            the runtime running the ranges and holding the memory budget of their buffers
+     * @param blob               the blob to download
+     * @param file               the file to write
+     * @param threads            the maximum number of ranges downloaded in parallel
+     * @param copyStreamListener the listener notified of the progress, may be null
+     * @throws IOException if the download failed
+     */
+    static void download(@Nonnull Storage storage, @Nonnull GCSRuntime runtime, @Nonnull Blob blob,
+            @Nonnull File file, int threads, @Nullable CopyStreamListener copyStreamListener) throws IOException {
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(format("Could not create folder %s", parent));
+        }
+
+        long size = blob.getSize() != null ? blob.getSize() : 0;
+        int ranges = (int) Math.max(1, Math.min(threads, size / MIN_RANGE_SIZE));
+        long rangeSize = (size + ranges - 1) / Math.max(1, ranges);
+        AtomicLong transferred = new AtomicLong();
+
+        log.debug(format("Downloading %s to %s in %d range(s)", blob.getName(), file, ranges));
+        File temp = new File(file.getAbsoluteFile().getParentFile(),
+                format(".%s.%s.part", file.getName(), UUID.randomUUID()));
+        boolean complete = false;
+        try {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(temp, "rw")) {
+                randomAccessFile.setLength(size);
+                FileChannel channel = randomAccessFile.getChannel();
+
+                GCSMemoryBudget budget = runtime.getMemoryBudget();
+                if (ranges == 1) {
+                    transferRange(storage, budget, blob.getBlobId(), channel, 0, size, transferred, size,
+                            copyStreamListener);
+                }
+                else {
+                    ExecutorService executor = runtime.getExecutor();
+                    List<RangeTask> tasks = new ArrayList<>(ranges);
+                    for (long start = 0; start < size; start += rangeSize) {
+                        long end = Math.min(size, start + rangeSize);
+                        long rangeStart = start;
+                        RangeTask task = new RangeTask(() -> transferRange(storage, budget, blob.getBlobId(), channel,
+                                rangeStart, end, transferred, size, copyStreamListener));
+                        tasks.add(task);
+                        task.future = executor.submit(task);
+                    }
+                    await(tasks);
+                }
+            }
+
+            move(temp, file);
+            complete = true;
+        }
+        finally {
+            if (!complete) {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+    }
+
+
+    private static void move(@Nonnull File source, @Nonnull File target) throws IOException {
+
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    private static void transferRange(@Nonnull Storage storage, @Nonnull GCSMemoryBudget budget,
+            @Nonnull BlobId blobId, @Nonnull FileChannel channel, long start, long end, @Nonnull AtomicLong transferred,
+            long size, @Nullable CopyStreamListener copyStreamListener) throws IOException {
+
+        long reserved = reserve(budget, READ_CHUNK_SIZE + TRANSFER_BUFFER_SIZE);
+        try (ReadChannel reader = storage.reader(blobId)) {
+            reader.setChunkSize(READ_CHUNK_SIZE);
+            reader.seek(start);
+
+            ByteBuffer buffer = TRANSFER_BUFFER.get();
+            long position = start;
+            while (position < end) {
+                ((Buffer) buffer).clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int count = reader.read(buffer);
+                if (count <= 0) {
+                    throw new EOFException(format("%s was truncated while being downloaded", blobId.getName()));
+                }
+
+                ((Buffer) buffer).flip();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+
+                if (copyStreamListener != null) {
+                    long total = transferred.addAndGet(count);
+                    synchronized (copyStreamListener) {
+                        copyStreamListener.bytesTransferred(total, count, size);
+                    }
+                }
+            }
+        }
+        finally {
+            budget.release(reserved);
+        }
+    }
+
+
+    /**
+     * Reserves the memory of a transfer buffer
+     */
+    static long reserve(@Nonnull GCSMemoryBudget budget, long bytes) throws IOException {
+
+        try {
+            return budget.reserve(bytes);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+
+    /**
+     * Waits for every range. When one fails, the others are cancelled, and the ones already running are waited for,
+     * as the file they write to is closed and deleted once this returns.
+     */
+    private static void await(@Nonnull List<RangeTask> tasks) throws IOException {
+
+        try {
+            for (RangeTask task : tasks) {
+                task.future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        finally {
+            for (RangeTask task : tasks) {
+                task.future.cancel(true);
+            }
+            for (RangeTask task : tasks) {
+                task.awaitStopped();
+            }
+        }
+    }
+
+
+    /**
+     * Transfers a range of a blob
+     */
+    private interface RangeTransfer {
+
+        void run() throws IOException;
+    }
+
+
+    /**
+     * A range run by the executor, which can be kept from starting and waited for once cancelled
+     */
+    private static class RangeTask implements Callable<Void> {
+
+        private final RangeTransfer transfer;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        private Future<?> future;
+
+
+        RangeTask(@Nonnull RangeTransfer transfer) {
+
+            this.transfer = transfer;
+        }
+
+
+        @Override
+        public Void call() throws IOException {
+
+            if (!this.started.compareAndSet(false, true)) {
+                // Skipped by a failed download
+                return null;
+            }
+            try {
+                this.transfer.run();
+                return null;
+            }
+            finally {
+                this.stopped.countDown();
+            }
+        }
+
+
+        /**
+         * Waits until the range has stopped, unless it has not started, in which case it never will
+         */
+        void awaitStopped() {
+
+            if (this.started.compareAndSet(false, true)) {
+                return;
+            }
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.stopped.await();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
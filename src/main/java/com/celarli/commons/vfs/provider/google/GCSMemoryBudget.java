@@ -0,0 +1,102 @@
+package com.celarli.commons.vfs.provider.google;
+
+import javax.annotation.Nullable;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Bounds the memory held by the caches and transfer buffers of the file systems sharing a runtime. Caches reserve
+ * their entries without waiting and give way to buffers, which wait for memory once nothing can be reclaimed.
+ */
+class GCSMemoryBudget {
+
+    /**
+     * How long a buffer waits before trying to reclaim memory again
+     */
+    private static final long RECLAIM_INTERVAL_MILLIS = 100;
+
+    /**
+     * The memory available, in bytes, or a non positive value when unbounded
+     */
+    private final long limit;
+    /**
+     * Reclaims memory from the caches, returning false when they have nothing left
+     */
+    private volatile BooleanSupplier reclaimer;
+    private long used = 0;
+
+
+    /**
+     * Constructor
+     *
+     * @param limit the memory available, in bytes, the budget is unbounded when not positive
+     */
+    GCSMemoryBudget(long limit) {
+
+        this.limit = limit;
+    }
+
+
+    /**
+     * Sets what reclaims memory when a buffer does not fit
+     */
+    void setReclaimer(@Nullable BooleanSupplier reclaimer) {
+
+        this.reclaimer = reclaimer;
+    }
+
+
+    /**
+     * Reserves memory if it is available right away
+     *
+     * @param bytes the memory to reserve
+     * @return true if the memory was reserved
+     */
+    synchronized boolean tryReserve(long bytes) {
+
+        if (this.limit > 0 && this.used + bytes > this.limit) {
+            return false;
+        }
+        this.used += bytes;
+        return true;
+    }
+
+
+    /**
+     * Reserves memory for a buffer, reclaiming cached memory or waiting for buffers to be released until it fits.
+     * A buffer larger than the whole budget only reserves the whole budget.
+     *
+     * @param bytes the memory to reserve
+     * @return the memory actually reserved, to be released with {@link #release(long)}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    long reserve(long bytes) throws InterruptedException {
+
+        long reserved = this.limit > 0 ? Math.min(bytes, this.limit) : bytes;
+        while (!tryReserve(reserved)) {
+            BooleanSupplier reclaimer = this.reclaimer;
+            // Reclaim outside of the lock, the caches reserve their entries while holding their own lock
+            if (reclaimer == null || !reclaimer.getAsBoolean()) {
+                synchronized (this) {
+                    if (this.used + reserved > this.limit) {
+                        wait(RECLAIM_INTERVAL_MILLIS);
+                    }
+                }
+            }
+        }
+        return reserved;
+    }
+
+
+    synchronized void release(long bytes) {
+
+        this.used -= bytes;
+        notifyAll();
+    }
+
+
+    synchronized long getUsed() {
+
+        return this.used;
+    }
+}
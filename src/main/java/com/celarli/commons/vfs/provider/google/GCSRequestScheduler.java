@@ -0,0 +1,299 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.lang.String.format;
+
+
+/**
+ * Schedules the metadata, listing and read requests sent to GCS. Each bucket gets an adaptive concurrency limit which
+ * backs off when GCS throttles, failed requests are retried with jittered exponential backoff as long as the retry
+ * budget allows it, and idempotent requests slower than a latency percentile can be hedged by a second attempt.
+ * The limits, latencies and retry budget live in the runtime, so they are shared by the file systems using it.
+ * <p>
+ * The client sending the scheduled requests does not retry them itself, so throttling reaches the concurrency limits
+ * and every retry is paid from the budget. Uploads, downloads and copies go through a client keeping its own retries.
+ */
+class GCSRequestScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSRequestScheduler.class);
+
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final GCSRuntime runtime;
+    private final int maxRetries;
+    private final boolean hedgedRequests;
+
+
+    /**
+     * Constructor
+     *
+     * @param runtime        the runtime holding the scheduling state
+     * @param maxRetries     the maximum number of retries of a request
+     * @param hedgedRequests whether slow idempotent requests are hedged
+     */
+    GCSRequestScheduler(@Nonnull GCSRuntime runtime, int maxRetries, boolean hedgedRequests) {
+
+        this.runtime = runtime;
+        this.maxRetries = maxRetries;
+        this.hedgedRequests = hedgedRequests;
+    }
+
+
+    /**
+     * Sends a request against the given bucket
+     *
+     * @param bucket     the bucket the request targets
+     * @param idempotent whether the request only reads, so it can be hedged
+     * @param request    the request
+     * @param <T>        the type of the response
+     * @return the response
+     * @throws Exception the failure of the last attempt
+     */
+    <T> T execute(@Nonnull String bucket, boolean idempotent, @Nonnull Callable<T> request) throws Exception {
+
+        GCSBucketGovernor governor = this.runtime.getGovernor(bucket);
+
+        for (int attempt = 0; ; attempt++) {
+            acquire(governor);
+            try {
+                T response = idempotent && this.hedgedRequests ? hedge(governor, request) : send(governor, request);
+                this.runtime.earnRetryToken();
+                return response;
+            }
+            catch (StorageException e) {
+                if (attempt >= this.maxRetries || !isRetryable(e) || !this.runtime.spendRetryToken()) {
+                    throw e;
+                }
+                log.debug(format("Request against bucket %s failed with %d, retrying", bucket, e.getCode()));
+            }
+
+            backoff(attempt);
+        }
+    }
+
+
+    /**
+     * Sends the request and a second attempt if the first one is slower than the tracked latency percentile,
+     * returning whichever completes first. Each attempt holds its slots until its request completes, the one which
+     * lost the race included, so the limits count every request in flight and learn from every outcome.
+     */
+    private <T> T hedge(@Nonnull GCSBucketGovernor governor, @Nonnull Callable<T> request) throws Exception {
+
+        long delay = governor.latency.getPercentile();
+        if (delay < 0) {
+            return send(governor, request);
+        }
+
+        CompletionService<T> completionService = new ExecutorCompletionService<>(this.runtime.getHedgeExecutor());
+        Attempt<T> primary = new Attempt<>(governor, request);
+        Future<T> primaryFuture;
+        try {
+            primaryFuture = completionService.submit(primary);
+        }
+        catch (RejectedExecutionException e) {
+            // Every hedging thread is busy, so the request is not hedged
+            return send(governor, request);
+        }
+
+        Attempt<T> secondary = null;
+        Future<T> secondaryFuture = null;
+        try {
+            Future<T> done = completionService.poll(delay, TimeUnit.MILLISECONDS);
+            if (done == null && tryAcquire(governor)) {
+                secondary = new Attempt<>(governor, request);
+                try {
+                    secondaryFuture = completionService.submit(secondary);
+                }
+                catch (RejectedExecutionException e) {
+                    release(governor, false);
+                    secondary = null;
+                }
+            }
+
+            if (done == null) {
+                done = completionService.take();
+            }
+
+            try {
+                return done.get();
+            }
+            catch (ExecutionException e) {
+                if (secondaryFuture == null) {
+                    throw unwrap(e);
+                }
+                // Fall back to the other attempt
+                try {
+                    return completionService.take().get();
+                }
+                catch (ExecutionException other) {
+                    throw unwrap(other);
+                }
+            }
+        }
+        finally {
+            // A running attempt completes on its own and releases its slots then, only the unstarted ones are dropped
+            primaryFuture.cancel(false);
+            primary.abandon();
+            if (secondary != null) {
+                secondaryFuture.cancel(false);
+                secondary.abandon();
+            }
+        }
+    }
+
+
+    /**
+     * Waits for a slot of the bucket, then for a request slot of the runtime
+     */
+    private void acquire(@Nonnull GCSBucketGovernor governor) throws InterruptedException {
+
+        // Wait on the bucket first, so a throttled bucket does not hold the slots of the others
+        governor.limiter.acquire();
+        try {
+            this.runtime.acquireRequest();
+        }
+        catch (InterruptedException e) {
+            governor.limiter.release(false);
+            throw e;
+        }
+    }
+
+
+    /**
+     * Acquires a slot of the bucket and a request slot of the runtime only if both are free right away
+     */
+    private boolean tryAcquire(@Nonnull GCSBucketGovernor governor) {
+
+        if (!governor.limiter.tryAcquire()) {
+            return false;
+        }
+        if (!this.runtime.tryAcquireRequest()) {
+            governor.limiter.release(false);
+            return false;
+        }
+        return true;
+    }
+
+
+    private void release(@Nonnull GCSBucketGovernor governor, boolean throttled) {
+
+        this.runtime.releaseRequest();
+        governor.limiter.release(throttled);
+    }
+
+
+    /**
+     * Sends the request on slots acquired for it, releasing them with its outcome once it completes
+     */
+    private <T> T send(@Nonnull GCSBucketGovernor governor, @Nonnull Callable<T> request) throws Exception {
+
+        boolean throttled = false;
+        try {
+            return timed(governor, request);
+        }
+        catch (StorageException e) {
+            throttled = isThrottled(e);
+            throw e;
+        }
+        finally {
+            release(governor, throttled);
+        }
+    }
+
+
+    private static <T> T timed(@Nonnull GCSBucketGovernor governor, @Nonnull Callable<T> request) throws Exception {
+
+        long start = System.nanoTime();
+        T response = request.call();
+        governor.latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return response;
+    }
+
+
+    @Nonnull
+    private static Exception unwrap(@Nonnull ExecutionException e) {
+
+        if (e.getCause() instanceof Exception) {
+            return (Exception) e.getCause();
+        }
+        return e;
+    }
+
+
+    private static boolean isThrottled(@Nonnull StorageException e) {
+
+        return e.getCode() == 429 || e.getCode() == 503;
+    }
+
+
+    static boolean isRetryable(@Nonnull StorageException e) {
+
+        return e.isRetryable() || e.getCode() == 429 || e.getCode() >= 500;
+    }
+
+
+    /**
+     * Sleeps for a random time up to an exponentially growing bound (full jitter)
+     */
+    private static void backoff(int attempt) throws InterruptedException {
+
+        long bound = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+    }
+
+
+    /**
+     * An attempt of a hedged request, owning the slots acquired for it. The slots are released by the attempt when
+     * it runs, or by {@link #abandon()} when it was cancelled before starting.
+     */
+    private final class Attempt<T> implements Callable<T> {
+
+        private final GCSBucketGovernor governor;
+        private final Callable<T> request;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+
+        Attempt(@Nonnull GCSBucketGovernor governor, @Nonnull Callable<T> request) {
+
+            this.governor = governor;
+            this.request = request;
+        }
+
+
+        @Override
+        public T call() throws Exception {
+
+            if (!this.started.compareAndSet(false, true)) {
+                throw new CancellationException();
+            }
+            return send(this.governor, this.request);
+        }
+
+
+        /**
+         * Releases the slots of the attempt if it has not started, and keeps it from starting
+         */
+        void abandon() {
+
+            if (this.started.compareAndSet(false, true)) {
+                release(this.governor, false);
+            }
+        }
+    }
+}
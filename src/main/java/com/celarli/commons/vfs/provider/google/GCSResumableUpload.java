@@ -0,0 +1,248 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.common.hash.Hashing;
+import org.apache.commons.net.io.CopyStreamListener;
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.String.format;
+
+
+/**
+ * Uploads a file through a resumable session whose state is checkpointed after each committed chunk, so that an
+ * upload interrupted by a crash can be continued by a later copy of the same source. Checkpoints are kept per
+ * destination, so the one left by another source, or by an older version of the same one, is discarded by the next
+ * upload to that destination.
+ */
+class GCSResumableUpload {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSResumableUpload.class);
+
+    /**
+     * GCS requires the chunks of resumable uploads to be a multiple of 256 KiB
+     */
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * The GCS client
+     */
+    private final Storage storage;
+    /**
+     * The store holding the checkpoints
+     */
+    private final GCSUploadStateStore store;
+    /**
+     * The memory budget the upload buffers are reserved from
+     */
+    private final GCSMemoryBudget budget;
+    /**
+     * The size of the chunks sent to GCS
+     */
+    private final int chunkSize;
+
+
+    /**
+     * Constructor
+     *
+     * @param storage   the GCS client
+     * @param store     the store holding the checkpoints
+     * @param budget    the memory budget the upload buffers are reserved from
+     * @param chunkSize the requested size of the chunks sent to GCS
+     */
+    GCSResumableUpload(@Nonnull Storage storage, @Nonnull GCSUploadStateStore store, @Nonnull GCSMemoryBudget budget,
+            int chunkSize) {
+
+        this.storage = storage;
+        this.store = store;
+        this.budget = budget;
+        this.chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize - chunkSize % MIN_CHUNK_SIZE);
+    }
+
+
+    /**
+     * Uploads the content of the source file to the given blob, resuming a previous upload of the same source if a
+     * checkpoint exists for it.
+     *
+     * @param srcFile            the file to upload
+     * @param blobInfo           the blob to create
+     * @param copyStreamListener the listener notified of the progress, may be null
+     * @throws IOException if the upload failed, in which case its last checkpoint is kept
+     */
+    void upload(@Nonnull FileObject srcFile, @Nonnull BlobInfo blobInfo, @Nullable CopyStreamListener copyStreamListener)
+            throws IOException {
+
+        FileContent content = srcFile.getContent();
+        String key = key(blobInfo);
+        String source = source(srcFile, content);
+
+        GCSUploadCheckpoint checkpoint = loadCheckpoint(key);
+        if (checkpoint != null && !source.equals(checkpoint.getSource())) {
+            log.info(format("Discarding the upload checkpoint of %s, left by another source", blobInfo.getName()));
+            this.store.remove(key);
+            checkpoint = null;
+        }
+
+        WriteChannel writer = checkpoint != null ? restoreCheckpoint(key, checkpoint) : null;
+        if (writer != null) {
+            log.info(format("Resuming upload of %s at offset %d", srcFile.getName(), checkpoint.getOffset()));
+            try {
+                upload(content, writer, checkpoint.getOffset(), key, source, copyStreamListener);
+                return;
+            }
+            catch (StorageException e) {
+                // Upload sessions expire after a week, or when the upload was already completed
+                if (e.getCode() != 404 && e.getCode() != 410) {
+                    throw e;
+                }
+                log.warn(format("Upload session of %s is no longer valid, restarting from the beginning",
+                        srcFile.getName()));
+                this.store.remove(key);
+            }
+        }
+
+        upload(content, this.storage.writer(blobInfo), 0, key, source, copyStreamListener);
+    }
+
+
+    private void upload(@Nonnull FileContent content, @Nonnull WriteChannel writer, long offset, @Nonnull String key,
+            @Nonnull String source, @Nullable CopyStreamListener copyStreamListener) throws IOException {
+
+        long size = content.getSize();
+        writer.setChunkSize(this.chunkSize);
+
+        // Our buffer and the one of the writer
+        long reserved = GCSLocalTransfer.reserve(this.budget, 2L * this.chunkSize);
+        try (InputStream inputStream = content.getInputStream()) {
+            skipFully(inputStream, offset);
+
+            // Writing whole chunks makes the channel commit them right away, so captured states hold no buffered data
+            byte[] buffer = new byte[this.chunkSize];
+            int read;
+            while ((read = readFully(inputStream, buffer)) > 0) {
+                writer.write(ByteBuffer.wrap(buffer, 0, read));
+                offset += read;
+
+                if (copyStreamListener != null) {
+                    copyStreamListener.bytesTransferred(offset, read, size);
+                }
+
+                if (read == buffer.length) {
+                    saveCheckpoint(key, source, writer, offset);
+                }
+            }
+        }
+        finally {
+            this.budget.release(reserved);
+        }
+
+        // Only close once everything has been read, closing finalizes the blob
+        writer.close();
+        this.store.remove(key);
+    }
+
+
+    @Nullable
+    private GCSUploadCheckpoint loadCheckpoint(@Nonnull String key) {
+
+        try {
+            return this.store.load(key);
+        }
+        catch (IOException e) {
+            log.warn(format("Could not load upload checkpoint %s", key), e);
+            return null;
+        }
+    }
+
+
+    @Nullable
+    private WriteChannel restoreCheckpoint(@Nonnull String key, @Nonnull GCSUploadCheckpoint checkpoint)
+            throws IOException {
+
+        try {
+            return checkpoint.restore(this.storage);
+        }
+        catch (InvalidClassException e) {
+            log.warn(format("Ignoring unreadable upload checkpoint %s", key), e);
+            this.store.remove(key);
+            return null;
+        }
+    }
+
+
+    private void saveCheckpoint(@Nonnull String key, @Nonnull String source, @Nonnull WriteChannel writer,
+            long offset) {
+
+        try {
+            this.store.save(key, new GCSUploadCheckpoint(writer.capture(), offset, source));
+        }
+        catch (IOException e) {
+            // The upload itself can go on, it just won't be resumable from this point
+            log.warn(format("Could not save upload checkpoint %s", key), e);
+        }
+    }
+
+
+    /**
+     * Identifies an upload by its destination
+     */
+    @Nonnull
+    private static String key(@Nonnull BlobInfo blobInfo) {
+
+        String identity = format("%s/%s", blobInfo.getBucket(), blobInfo.getName());
+        return Hashing.sha256().hashString(identity, StandardCharsets.UTF_8).toString();
+    }
+
+
+    /**
+     * Identifies the uploaded version of a source by its name, size and modification time
+     */
+    @Nonnull
+    private static String source(@Nonnull FileObject srcFile, @Nonnull FileContent content) throws IOException {
+
+        return format("%s|%d|%d", srcFile.getName().getURI(), content.getSize(), content.getLastModifiedTime());
+    }
+
+
+    private static void skipFully(@Nonnull InputStream inputStream, long count) throws IOException {
+
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                if (inputStream.read() == -1) {
+                    throw new EOFException("Source is shorter than the checkpointed offset");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+
+    private static int readFully(@Nonnull InputStream inputStream, @Nonnull byte[] buffer) throws IOException {
+
+        int total = 0;
+        while (total < buffer.length) {
+            int read = inputStream.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
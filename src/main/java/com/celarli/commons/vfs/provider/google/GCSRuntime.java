@@ -0,0 +1,325 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.Storage;
+import com.google.common.hash.Hashing;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The resources shared by GCS file systems: the HTTP transport and the clients built on it, the transfer and walker
+ * threads, the per bucket concurrency limits, a global limit of requests in flight, and a memory budget bounding the
+ * small object cache and the transfer buffers.
+ * <p>
+ * File systems get their own runtime, built from their options, unless one is set with
+ * {@link GcsFileSystemConfigBuilder#setRuntime(FileSystemOptions, GCSRuntime)}. Setting the same runtime on the
+ * options of every file system makes them share it; the transfer threads, concurrency limits, content cache and
+ * memory budget options of the runtime then apply to all of them. A shared runtime is not closed with the file
+ * systems using it and must be closed once they are.
+ */
+public class GCSRuntime implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSRuntime.class);
+
+    /**
+     * Each successful request earns a fraction of a retry, so retries stay a small share of the traffic
+     */
+    private static final double RETRY_TOKEN_RATIO = 0.1;
+    private static final double MAX_RETRY_TOKENS = 10;
+
+    private final HttpTransport transport;
+    /**
+     * Whether the transport was created by the runtime, and is shut down with it
+     */
+    private final boolean ownsTransport;
+    private final HttpTransportOptions transportOptions;
+    private final ConcurrentMap<String, Storage> clients = new ConcurrentHashMap<>();
+
+    private final int transferThreads;
+    private final int maxConcurrentRequests;
+    private final double hedgePercentile;
+    private final ConcurrentMap<String, GCSBucketGovernor> governors = new ConcurrentHashMap<>();
+    /**
+     * Bounds the requests in flight across all buckets, null when unbounded
+     */
+    private final Semaphore requestPermits;
+    private double retryTokens = MAX_RETRY_TOKENS;
+
+    private final GCSMemoryBudget memoryBudget;
+    private final GCSContentCache contentCache;
+
+    private ExecutorService executor;
+    private ExecutorService walkerExecutor;
+    private ExecutorService hedgeExecutor;
+
+
+    /**
+     * Creates a runtime with the default options
+     */
+    public GCSRuntime() {
+
+        this(null);
+    }
+
+
+    /**
+     * Creates a runtime sized by the given options
+     *
+     * @param fileSystemOptions the options holding the transport, transfer threads, concurrency limits, content cache
+     *                          and memory budget settings
+     */
+    public GCSRuntime(@Nullable FileSystemOptions fileSystemOptions) {
+
+        GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+        HttpTransport transport = builder.getHttpTransport(fileSystemOptions);
+        this.ownsTransport = transport == null;
+        this.transport = transport != null ? transport : new NetHttpTransport();
+        this.transportOptions = HttpTransportOptions.newBuilder().setHttpTransportFactory(() -> this.transport).build();
+
+        this.transferThreads = builder.getTransferThreads(fileSystemOptions);
+        this.maxConcurrentRequests = builder.getMaxConcurrentRequests(fileSystemOptions);
+        this.hedgePercentile = builder.getHedgePercentile(fileSystemOptions);
+
+        int maxInFlightRequests = builder.getMaxInFlightRequests(fileSystemOptions);
+        this.requestPermits = maxInFlightRequests > 0 ? new Semaphore(maxInFlightRequests) : null;
+
+        this.memoryBudget = new GCSMemoryBudget(builder.getMemoryBudget(fileSystemOptions));
+        this.contentCache = new GCSContentCache(builder.getContentCacheSize(fileSystemOptions),
+                builder.getContentCacheThreshold(fileSystemOptions), this.memoryBudget);
+        this.memoryBudget.setReclaimer(this.contentCache::evictEldest);
+    }
+
+
+    /**
+     * Returns a client for the credentials and host of the given options, sharing the clients of identical options.
+     * Scheduled clients do not retry, as the requests sent through them are retried by the request scheduler;
+     * the other clients retry with the default settings of the GCS client and carry the transfers.
+     *
+     * @param fileSystemOptions the options of a file system
+     * @param scheduled         whether the requests of the client are sent through the request scheduler
+     * @return the client
+     */
+    @Nonnull
+    Storage getClient(@Nullable FileSystemOptions fileSystemOptions, boolean scheduled) {
+
+        return this.clients.computeIfAbsent(clientKey(fileSystemOptions, scheduled),
+                key -> GCSClientFactory.getClient(fileSystemOptions, this.transportOptions,
+                        scheduled ? ServiceOptions.getNoRetrySettings() : ServiceOptions.getDefaultRetrySettings()));
+    }
+
+
+    @Nonnull
+    private static String clientKey(@Nullable FileSystemOptions fileSystemOptions, boolean scheduled) {
+
+        GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+        byte[] key = builder.getKey(fileSystemOptions);
+        return builder.getClientType(fileSystemOptions) + "\n" + builder.getHostname(fileSystemOptions) + "\n"
+                + (key != null ? Hashing.sha256().hashBytes(key).toString() : "") + "\n" + scheduled;
+    }
+
+
+    /**
+     * Returns the executor running parallel transfers, sized by the transfer threads option of the runtime
+     *
+     * @return the executor
+     */
+    @Nonnull
+    synchronized ExecutorService getExecutor() {
+
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(this.transferThreads, daemonThreads("gcs-transfer-"));
+        }
+        return this.executor;
+    }
+
+
+    /**
+     * Returns the executor running the workers of tree walks, sized by the transfer threads option of the runtime.
+     * It is separate from the transfer executor, as the workers wait on the ranges they submit there.
+     *
+     * @return the executor
+     */
+    @Nonnull
+    synchronized ExecutorService getWalkerExecutor() {
+
+        if (this.walkerExecutor == null) {
+            this.walkerExecutor = Executors.newFixedThreadPool(this.transferThreads, daemonThreads("gcs-walker-"));
+        }
+        return this.walkerExecutor;
+    }
+
+
+    /**
+     * Returns the executor racing hedged requests. It runs up to two attempts per request slot of a bucket and
+     * rejects the attempts beyond, which are then sent without hedging.
+     *
+     * @return the executor
+     */
+    @Nonnull
+    synchronized ExecutorService getHedgeExecutor() {
+
+        if (this.hedgeExecutor == null) {
+            int threads = Math.max(2, 2 * this.maxConcurrentRequests);
+            this.hedgeExecutor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    daemonThreads("gcs-hedge-"));
+        }
+        return this.hedgeExecutor;
+    }
+
+
+    @Nonnull
+    private static ThreadFactory daemonThreads(@Nonnull String prefix) {
+
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+
+    /**
+     * Returns the scheduling state of the given bucket, shared by all the file systems of the runtime
+     *
+     * @param bucket the bucket
+     * @return the scheduling state
+     */
+    @Nonnull
+    GCSBucketGovernor getGovernor(@Nonnull String bucket) {
+
+        return this.governors.computeIfAbsent(bucket,
+                b -> new GCSBucketGovernor(this.maxConcurrentRequests, this.hedgePercentile));
+    }
+
+
+    /**
+     * Waits until a request may be sent without exceeding the maximum number of requests in flight
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void acquireRequest() throws InterruptedException {
+
+        if (this.requestPermits != null) {
+            this.requestPermits.acquire();
+        }
+    }
+
+
+    /**
+     * Acquires a request slot only if one is free right away
+     *
+     * @return true if the slot was acquired
+     */
+    boolean tryAcquireRequest() {
+
+        return this.requestPermits == null || this.requestPermits.tryAcquire();
+    }
+
+
+    void releaseRequest() {
+
+        if (this.requestPermits != null) {
+            this.requestPermits.release();
+        }
+    }
+
+
+    synchronized void earnRetryToken() {
+
+        this.retryTokens = Math.min(MAX_RETRY_TOKENS, this.retryTokens + RETRY_TOKEN_RATIO);
+    }
+
+
+    /**
+     * Spends a retry from the budget shared by all the requests of the runtime
+     *
+     * @return false if the budget is exhausted
+     */
+    synchronized boolean spendRetryToken() {
+
+        if (this.retryTokens < 1) {
+            return false;
+        }
+        this.retryTokens--;
+        return true;
+    }
+
+
+    /**
+     * Returns the budget bounding the memory of the caches and transfer buffers
+     *
+     * @return the memory budget
+     */
+    @Nonnull
+    GCSMemoryBudget getMemoryBudget() {
+
+        return this.memoryBudget;
+    }
+
+
+    /**
+     * Returns the cache holding the content of small blobs
+     *
+     * @return the cache
+     */
+    @Nonnull
+    GCSContentCache getContentCache() {
+
+        return this.contentCache;
+    }
+
+
+    /**
+     * Stops the threads and releases the connections of the runtime
+     */
+    @Override
+    public void close() {
+
+        synchronized (this) {
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+                this.executor = null;
+            }
+            if (this.walkerExecutor != null) {
+                this.walkerExecutor.shutdownNow();
+                this.walkerExecutor = null;
+            }
+            if (this.hedgeExecutor != null) {
+                this.hedgeExecutor.shutdownNow();
+                this.hedgeExecutor = null;
+            }
+        }
+        this.clients.clear();
+
+        if (!this.ownsTransport) {
+            return;
+        }
+        try {
+            this.transport.shutdown();
+        }
+        catch (IOException e) {
+            log.warn("Could not shut the HTTP transport down", e);
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import org.apache.commons.net.io.CopyStreamListener;
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelector;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.NameScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+
+/**
+ * Mirrors a source tree below a GCS file, transferring only the files which are new or changed
+ */
+class GCSSync {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSSync.class);
+
+    /**
+     * The metadata entry holding the modification time of the source of a blob, in seconds, named as gsutil does
+     */
+    static final String SOURCE_MODIFIED_TIME = "goog-reserved-file-mtime";
+
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+    private static final int DELETE_BATCH_SIZE = 100;
+
+    /**
+     * The file below which the source is mirrored
+     */
+    private final GCSFileObject target;
+    /**
+     * The GCS client
+     */
+    private final Storage storage;
+    /**
+     * The number of files transferred in parallel
+     */
+    private final int threads;
+
+    private final AtomicLong filesCopied = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong filesDeleted = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+
+    /**
+     * Constructor
+     *
+     * @param target  the file below which the source is mirrored
+     * @param storage the GCS client
+     * @param threads the number of files transferred in parallel when no listener follows the transfers
+     */
+    GCSSync(@Nonnull GCSFileObject target, @Nonnull Storage storage, int threads) {
+
+        this.target = target;
+        this.storage = storage;
+        this.threads = threads;
+    }
+
+
+    /**
+     * Diffs the source files against the blobs below the target and transfers the new or changed ones.
+     *
+     * @param source             the file or folder to mirror
+     * @param selector           selects the source files to mirror
+     * @param deleteExtraneous   whether blobs which do not exist in the source must be deleted
+     * @param copyStreamListener the listener notified of the progress of each transfer, may be null
+     * @return the outcome of the sync
+     * @throws FileSystemException if a file could not be transferred
+     */
+    @Nonnull
+    GCSSyncResult run(@Nonnull FileObject source, @Nonnull FileSelector selector, boolean deleteExtraneous,
+            @Nullable CopyStreamListener copyStreamListener) throws FileSystemException {
+
+        String bucket = this.target.getBucketName();
+        String path = this.target.getBlobPath();
+        String prefix = path.equals("/") ? "" : path;
+
+        Map<String, ExistingBlob> existing = listExisting(bucket, prefix);
+        log.debug(format("Found %d blobs below %s", existing.size(), this.target.getName()));
+
+        // Source files are streamed to the workers while the source is walked, or synced one after the other when a
+        // listener follows the progress of each transfer
+        GCSRuntime runtime = ((GCSFileSystem) this.target.getFileSystem()).getRuntime();
+        int threads = copyStreamListener != null ? 0 : this.threads;
+        new GCSTreeWalker(runtime, threads).walk(source, selector, srcFile -> {
+            if (!srcFile.getType().hasContent()) {
+                // GCS does not have folders
+                return;
+            }
+
+            String relPath = source.getName().getRelativeName(srcFile.getName());
+            String blobName;
+            if (relPath.equals(".")) {
+                blobName = prefix;
+            }
+            else {
+                blobName = prefix.isEmpty() ? relPath : prefix + "/" + relPath;
+            }
+
+            syncFile(srcFile, relPath, bucket, blobName, existing.remove(blobName), copyStreamListener);
+        });
+
+        if (deleteExtraneous) {
+            deleteExtraneous(bucket, prefix, existing.values(), selector);
+        }
+
+        GCSSyncResult result = new GCSSyncResult(this.filesCopied.get(), this.filesSkipped.get(),
+                this.filesDeleted.get(), this.bytesCopied.get());
+        log.info(format("Synced %s to %s: %s", source.getName(), this.target.getName(), result));
+        return result;
+    }
+
+
+    /**
+     * Lists every blob below the given prefix, keyed by name. Blobs are removed as the matching source files are
+     * found, leaving the extraneous ones. Only the attributes compared by the sync are kept, as a tree may hold
+     * millions of blobs.
+     */
+    @Nonnull
+    private Map<String, ExistingBlob> listExisting(@Nonnull String bucket, @Nonnull String prefix)
+            throws FileSystemException {
+
+        Map<String, ExistingBlob> existing = new ConcurrentHashMap<>();
+        try {
+            Page<Blob> blobs = this.target.execute(true,
+                    () -> this.storage.list(bucket, Storage.BlobListOption.prefix(prefix)));
+            while (blobs != null) {
+                for (Blob blob : blobs.getValues()) {
+                    String name = blob.getName();
+                    if (prefix.isEmpty() || name.equals(prefix) || name.startsWith(prefix + "/")) {
+                        existing.put(name, new ExistingBlob(blob));
+                    }
+                }
+
+                Page<Blob> page = blobs;
+                blobs = page.hasNextPage() ? this.target.execute(true, page::getNextPage) : null;
+            }
+        }
+        catch (FileSystemException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new FileSystemException("vfs.provider/list-children.error", this.target, e);
+        }
+        return existing;
+    }
+
+
+    private void syncFile(@Nonnull FileObject srcFile, @Nonnull String relPath, @Nonnull String bucket,
+            @Nonnull String blobName, @Nullable ExistingBlob destBlob, @Nullable CopyStreamListener copyStreamListener)
+            throws IOException {
+
+        if (isUnchanged(srcFile, destBlob)) {
+            log.debug(format("Skipping unchanged file %s", srcFile.getName()));
+            this.filesSkipped.incrementAndGet();
+            return;
+        }
+
+        log.debug(format("Transferring %s to %s", srcFile.getName(), blobName));
+        long size = srcFile.getContent().getSize();
+        if (srcFile instanceof GCSFileObject && this.target.canCopyServerSide(srcFile)) {
+            Blob srcBlob = ((GCSFileObject) srcFile).getBlob();
+            Storage transferStorage = ((GCSFileSystem) this.target.getFileSystem()).getTransferStorage();
+            transferStorage.copy(Storage.CopyRequest.of(srcBlob.getBlobId(), BlobId.of(bucket, blobName))).getResult();
+        }
+        else {
+            FileObject destFile = this.target.resolveFile(relPath, NameScope.DESCENDENT_OR_SELF);
+            GCSFileObject.copyContent(srcFile, destFile, copyStreamListener);
+            destFile.refresh();
+            if (destFile != this.target) {
+                GCSTreeWalker.release(destFile);
+            }
+        }
+
+        this.filesCopied.incrementAndGet();
+        this.bytesCopied.addAndGet(size);
+    }
+
+
+    /**
+     * Checks whether the destination blob already holds the content of the source file. Checksums are compared when
+     * both sides are blobs. For other sources, a file whose modification time is the one recorded by the blob when
+     * it was uploaded is considered unchanged, otherwise the CRC32C of the source is computed.
+     */
+    private boolean isUnchanged(@Nonnull FileObject srcFile, @Nullable ExistingBlob destBlob) throws IOException {
+
+        if (destBlob == null) {
+            return false;
+        }
+
+        FileContent content = srcFile.getContent();
+        if (destBlob.contentSize != content.getSize()) {
+            return false;
+        }
+
+        if (srcFile instanceof GCSFileObject) {
+            Blob srcBlob = ((GCSFileObject) srcFile).getBlob();
+            if (srcBlob != null && srcBlob.getCrc32c() != null && destBlob.crc32c != null) {
+                return srcBlob.getCrc32c().equals(destBlob.crc32c);
+            }
+            if (srcBlob != null && srcBlob.getMd5() != null && destBlob.md5 != null) {
+                return srcBlob.getMd5().equals(destBlob.md5);
+            }
+            return false;
+        }
+
+        // Any other modification time, older ones included, may be a different content
+        long lastModifiedTime = content.getLastModifiedTime();
+        if (String.valueOf(TimeUnit.MILLISECONDS.toSeconds(lastModifiedTime)).equals(destBlob.modifiedTime)) {
+            return true;
+        }
+
+        // The checksum of a compressed blob is the one of its compressed content
+        if (destBlob.compressed || destBlob.crc32c == null || !destBlob.crc32c.equals(crc32c(content))) {
+            return false;
+        }
+
+        recordModifiedTime(destBlob, lastModifiedTime);
+        return true;
+    }
+
+
+    /**
+     * Records the modification time of an unchanged source in the metadata of its blob, so the next sync does not
+     * compute its checksum again. The update only patches that entry, and only while the blob holds the compared
+     * content.
+     */
+    private void recordModifiedTime(@Nonnull ExistingBlob destBlob, long lastModifiedTime) {
+
+        BlobInfo blobInfo = BlobInfo.newBuilder(destBlob.blobId)
+                .setMetadata(modifiedTimeMetadata(null, lastModifiedTime))
+                .build();
+        try {
+            this.target.execute(false,
+                    () -> this.storage.update(blobInfo, Storage.BlobTargetOption.generationMatch()));
+        }
+        catch (Exception e) {
+            // Only costs a checksum on the next sync
+            log.debug(format("Could not record the modification time of %s", destBlob.blobId.getName()), e);
+        }
+    }
+
+
+    /**
+     * Adds the modification time of the source of a blob to its metadata
+     *
+     * @param metadata         the metadata of the blob, may be null
+     * @param lastModifiedTime the modification time of the source, in milliseconds
+     * @return the new metadata
+     */
+    @Nonnull
+    static Map<String, String> modifiedTimeMetadata(@Nullable Map<String, String> metadata, long lastModifiedTime) {
+
+        Map<String, String> result = metadata != null ? new HashMap<>(metadata) : new HashMap<>();
+        result.put(SOURCE_MODIFIED_TIME, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(lastModifiedTime)));
+        return result;
+    }
+
+
+    /**
+     * Computes the base64 encoded CRC32C of the content, as reported by GCS, without holding it in memory
+     */
+    @Nonnull
+    static String crc32c(@Nonnull FileContent content) throws IOException {
+
+        Hasher hasher = Hashing.crc32c().newHasher();
+        byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+        try (InputStream inputStream = content.getInputStream()) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, read);
+            }
+        }
+        return BaseEncoding.base64().encode(Ints.toByteArray(hasher.hash().asInt()));
+    }
+
+
+    private void deleteExtraneous(@Nonnull String bucket, @Nonnull String prefix,
+            @Nonnull Collection<ExistingBlob> blobs, @Nonnull FileSelector selector) throws FileSystemException {
+
+        Map<String, Boolean> traversed = new HashMap<>();
+        List<BlobId> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+        for (ExistingBlob blob : blobs) {
+            String name = blob.blobId.getName();
+            if (name.endsWith("/")) {
+                // Keep folder placeholders
+                continue;
+            }
+
+            if (!isSelected(prefix, name, selector, traversed)) {
+                // Excluded from the sync, so it is not extraneous
+                continue;
+            }
+
+            batch.add(BlobId.of(bucket, name));
+            if (batch.size() == DELETE_BATCH_SIZE) {
+                deleteBatch(batch);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            deleteBatch(batch);
+        }
+    }
+
+
+    /**
+     * Checks whether the selector selects the blob below the target, as the walk of a source holding it would. The
+     * folders leading to the blob must be traversed by the selector, their decisions being kept across blobs.
+     */
+    private boolean isSelected(@Nonnull String prefix, @Nonnull String name, @Nonnull FileSelector selector,
+            @Nonnull Map<String, Boolean> traversed) throws FileSystemException {
+
+        try {
+            if (name.equals(prefix)) {
+                return selector.includeFile(new GCSTreeWalker.SelectInfo(this.target, this.target, 0));
+            }
+
+            String relPath = prefix.isEmpty() ? name : name.substring(prefix.length() + 1);
+            int depth = 0;
+            int slash = -1;
+            do {
+                String folder = relPath.substring(0, Math.max(0, slash));
+                Boolean traverse = traversed.get(folder);
+                if (traverse == null) {
+                    traverse = isTraversed(folder, depth, selector);
+                    traversed.put(folder, traverse);
+                }
+                if (!traverse) {
+                    return false;
+                }
+                depth++;
+            }
+            while ((slash = relPath.indexOf('/', slash + 1)) != -1);
+
+            FileObject file = this.target.resolveFile(relPath, NameScope.DESCENDENT);
+            try {
+                return selector.includeFile(new GCSTreeWalker.SelectInfo(this.target, file, depth));
+            }
+            finally {
+                GCSTreeWalker.release(file);
+            }
+        }
+        catch (FileSystemException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new FileSystemException("vfs.provider/find-files.error", this.target, e);
+        }
+    }
+
+
+    private boolean isTraversed(@Nonnull String folder, int depth, @Nonnull FileSelector selector) throws Exception {
+
+        if (folder.isEmpty()) {
+            return selector.traverseDescendents(new GCSTreeWalker.SelectInfo(this.target, this.target, 0));
+        }
+
+        FileObject file = this.target.resolveFile(folder, NameScope.DESCENDENT);
+        try {
+            return selector.traverseDescendents(new GCSTreeWalker.SelectInfo(this.target, file, depth));
+        }
+        finally {
+            GCSTreeWalker.release(file);
+        }
+    }
+
+
+    private void deleteBatch(@Nonnull List<BlobId> batch) throws FileSystemException {
+
+        List<Boolean> results;
+        try {
+            results = this.target.execute(false, () -> this.storage.delete(batch));
+        }
+        catch (Exception e) {
+            throw new FileSystemException("vfs.provider/delete.error", this.target, e);
+        }
+
+        for (Boolean deleted : results) {
+            if (Boolean.TRUE.equals(deleted)) {
+                this.filesDeleted.incrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * The attributes of a destination blob compared by the sync
+     */
+    private static class ExistingBlob {
+
+        /**
+         * The blob, with the generation holding the compared content
+         */
+        final BlobId blobId;
+        final long contentSize;
+        final boolean compressed;
+        final String crc32c;
+        final String md5;
+        /**
+         * The modification time of the source recorded by the blob, in seconds, may be null
+         */
+        final String modifiedTime;
+
+
+        ExistingBlob(@Nonnull BlobInfo blobInfo) {
+
+            Map<String, String> metadata = blobInfo.getMetadata();
+            this.blobId = blobInfo.getBlobId();
+            this.contentSize = GCSCompression.getContentSize(blobInfo);
+            this.compressed = GCSCompression.isCompressed(blobInfo);
+            this.crc32c = blobInfo.getCrc32c();
+            this.md5 = blobInfo.getMd5();
+            this.modifiedTime = metadata != null ? metadata.get(SOURCE_MODIFIED_TIME) : null;
+        }
+    }
+}
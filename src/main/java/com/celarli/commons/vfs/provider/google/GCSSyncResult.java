@@ -0,0 +1,68 @@
+package com.celarli.commons.vfs.provider.google;
+
+import static java.lang.String.format;
+
+
+/**
+ * Outcome of a {@link GCSFileObject#sync} operation
+ */
+public class GCSSyncResult {
+
+    private final long filesCopied;
+    private final long filesSkipped;
+    private final long filesDeleted;
+    private final long bytesCopied;
+
+
+    GCSSyncResult(long filesCopied, long filesSkipped, long filesDeleted, long bytesCopied) {
+
+        this.filesCopied = filesCopied;
+        this.filesSkipped = filesSkipped;
+        this.filesDeleted = filesDeleted;
+        this.bytesCopied = bytesCopied;
+    }
+
+
+    /**
+     * Get the number of new or changed files which were transferred
+     */
+    public long getFilesCopied() {
+
+        return filesCopied;
+    }
+
+
+    /**
+     * Get the number of files which were left untouched because they did not change
+     */
+    public long getFilesSkipped() {
+
+        return filesSkipped;
+    }
+
+
+    /**
+     * Get the number of extraneous blobs which were deleted from the destination
+     */
+    public long getFilesDeleted() {
+
+        return filesDeleted;
+    }
+
+
+    /**
+     * Get the number of bytes which were transferred
+     */
+    public long getBytesCopied() {
+
+        return bytesCopied;
+    }
+
+
+    @Override
+    public String toString() {
+
+        return format("copied: %d, skipped: %d, deleted: %d, bytes copied: %d", filesCopied, filesSkipped,
+                filesDeleted, bytesCopied);
+    }
+}
@@ -0,0 +1,449 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelectInfo;
+import org.apache.commons.vfs2.FileSelector;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.NameScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.lang.String.format;
+
+
+/**
+ * Walks the files selected below a base file and hands them to parallel workers through a bounded queue, so that
+ * the memory used does not depend on the size of the tree. Blobs are listed page by page, other file systems folder
+ * by folder. Files are evicted from the file system cache once processed.
+ * <p>
+ * The workers run on the walker threads of the runtime, shared by all walks. When the queue is full the walking
+ * thread processes the file itself, and workers which have not started by the end of the walk are skipped, so a walk
+ * started from a worker of another one, such as a folder deleted by a copy, completes even when every walker thread
+ * is taken.
+ * <p>
+ * Like {@link FileObject#findFiles(FileSelector, boolean, java.util.List)}, folders are handed out before their
+ * children, but the workers may process them in any order. A walker is meant for a single walk. Objects shared by
+ * the visits are used from several threads at once; a walker without workers processes the files one after the
+ * other in the walking thread instead, as needed by progress listeners, which expect the events of one stream at a
+ * time.
+ */
+class GCSTreeWalker {
+
+    private static final Logger log = LoggerFactory.getLogger(GCSTreeWalker.class);
+
+    private static final int QUEUE_CAPACITY_PER_THREAD = 16;
+
+    private static final Object END = new Object();
+
+    /**
+     * Processes the files handed out by the walker
+     */
+    interface Visitor {
+
+        void visit(@Nonnull FileObject file) throws Exception;
+    }
+
+    private final GCSRuntime runtime;
+    private final int threads;
+    private final BlockingQueue<Object> queue;
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    private FileObject base;
+    private Visitor visitor;
+    private List<Worker> workers;
+
+    /**
+     * The first file is held back, so a walk selecting a single file does not start any worker
+     */
+    private FileObject pending;
+
+
+    /**
+     * Constructor
+     *
+     * @param runtime the runtime whose walker threads run the workers
+     * @param threads the number of workers, 0 to process the files in order in the walking thread
+     */
+    GCSTreeWalker(@Nonnull GCSRuntime runtime, int threads) {
+
+        this.runtime = runtime;
+        this.threads = Math.max(0, threads);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, this.threads) * QUEUE_CAPACITY_PER_THREAD);
+    }
+
+
+    /**
+     * Walks the files selected below the given base and waits until they have all been processed
+     *
+     * @param base     the file to walk from
+     * @param selector selects the files to process
+     * @param visitor  processes the files, from several threads unless the walker has no workers
+     * @throws FileSystemException if the walk or the processing of a file failed
+     */
+    void walk(@Nonnull FileObject base, @Nonnull FileSelector selector, @Nonnull Visitor visitor)
+            throws FileSystemException {
+
+        this.base = base;
+        this.visitor = visitor;
+
+        try {
+            SelectInfo info = new SelectInfo(base, base, 0);
+            if (selector.includeFile(info)) {
+                emit(base);
+            }
+
+            if (base.getType().hasChildren() && selector.traverseDescendents(info)) {
+                if (base instanceof GCSFileObject) {
+                    walkBlobs((GCSFileObject) base, selector);
+                }
+                else {
+                    walkFolder(base, 1, selector);
+                }
+            }
+        }
+        catch (Exception e) {
+            this.failure.compareAndSet(null, e);
+        }
+        finally {
+            finish();
+        }
+
+        Exception e = this.failure.get();
+        if (e instanceof FileSystemException) {
+            throw (FileSystemException) e;
+        }
+        if (e != null) {
+            throw new FileSystemException("vfs.provider/find-files.error", base, e);
+        }
+    }
+
+
+    /**
+     * Walks a folder of a file system which is not GCS, one folder listing at a time
+     */
+    private void walkFolder(@Nonnull FileObject folder, int depth, @Nonnull FileSelector selector)
+            throws Exception {
+
+        for (FileObject child : folder.getChildren()) {
+            if (this.failure.get() != null) {
+                return;
+            }
+
+            SelectInfo info = new SelectInfo(this.base, child, depth);
+            boolean include = selector.includeFile(info);
+            if (include) {
+                emit(child);
+            }
+
+            if (child.getType().hasChildren() && selector.traverseDescendents(info)) {
+                walkFolder(child, depth + 1, selector);
+            }
+
+            if (!include) {
+                release(child);
+            }
+        }
+    }
+
+
+    /**
+     * Walks the blobs below a GCS folder from a flat listing, page by page. Listings are sorted by name, so the
+     * blobs of a folder are contiguous and only the folders leading to the current blob need to be kept.
+     */
+    private void walkBlobs(@Nonnull GCSFileObject folder, @Nonnull FileSelector selector) throws Exception {
+
+        String path = folder.getBlobPath();
+        String prefix = path.equals("/") || path.isEmpty() ? "" : path + "/";
+        Storage storage = ((GCSFileSystem) folder.getFileSystem()).getStorage();
+
+        Deque<Folder> ancestors = new ArrayDeque<>();
+        Page<Blob> blobs = folder.execute(true,
+                () -> storage.list(folder.getBucketName(), Storage.BlobListOption.prefix(prefix)));
+        while (blobs != null) {
+            for (Blob blob : blobs.getValues()) {
+                if (this.failure.get() != null) {
+                    return;
+                }
+
+                String relPath = blob.getName().substring(prefix.length());
+                if (!relPath.isEmpty()) {
+                    visitBlob(relPath, blob, ancestors, selector);
+                }
+            }
+
+            Page<Blob> page = blobs;
+            blobs = page.hasNextPage() ? folder.execute(true, page::getNextPage) : null;
+        }
+
+        while (!ancestors.isEmpty()) {
+            leaveFolder(ancestors);
+        }
+    }
+
+
+    private void visitBlob(@Nonnull String relPath, @Nonnull Blob blob, @Nonnull Deque<Folder> ancestors,
+            @Nonnull FileSelector selector) throws Exception {
+
+        // Leave the folders which do not hold this blob
+        while (!ancestors.isEmpty() && !relPath.startsWith(ancestors.peek().path)) {
+            leaveFolder(ancestors);
+        }
+
+        // Enter the folders holding it, unless the selector prunes one of them
+        int start = ancestors.isEmpty() ? 0 : ancestors.peek().path.length();
+        int slash;
+        while ((slash = relPath.indexOf('/', start)) != -1) {
+            if (!ancestors.isEmpty() && !ancestors.peek().traverse) {
+                return;
+            }
+            enterFolder(relPath.substring(0, slash + 1), ancestors, selector);
+            start = slash + 1;
+        }
+
+        if (relPath.endsWith("/") || !ancestors.isEmpty() && !ancestors.peek().traverse) {
+            // Folder placeholder, or pruned blob
+            return;
+        }
+
+        FileObject file = this.base.resolveFile(relPath, NameScope.DESCENDENT);
+        if (file instanceof GCSFileObject) {
+            ((GCSFileObject) file).attachListedBlob(blob);
+        }
+
+        if (selector.includeFile(new SelectInfo(this.base, file, ancestors.size() + 1))) {
+            emit(file);
+        }
+        else {
+            release(file);
+        }
+    }
+
+
+    private void enterFolder(@Nonnull String path, @Nonnull Deque<Folder> ancestors, @Nonnull FileSelector selector)
+            throws Exception {
+
+        FileObject file = this.base.resolveFile(path, NameScope.DESCENDENT);
+        SelectInfo info = new SelectInfo(this.base, file, ancestors.size() + 1);
+
+        boolean include = selector.includeFile(info);
+        ancestors.push(new Folder(path, file, include, selector.traverseDescendents(info)));
+        if (include) {
+            emit(file);
+        }
+    }
+
+
+    private void leaveFolder(@Nonnull Deque<Folder> ancestors) {
+
+        Folder folder = ancestors.pop();
+        if (!folder.included) {
+            release(folder.file);
+        }
+    }
+
+
+    private void emit(@Nonnull FileObject file) {
+
+        if (this.threads == 0) {
+            process(file);
+            return;
+        }
+
+        if (this.workers == null) {
+            if (this.pending == null) {
+                this.pending = file;
+                return;
+            }
+            startWorkers();
+            enqueue(this.pending);
+            this.pending = null;
+        }
+        enqueue(file);
+    }
+
+
+    private void enqueue(@Nonnull FileObject file) {
+
+        if (!this.queue.offer(file)) {
+            // The workers are behind, or not started because the walker threads are taken
+            process(file);
+        }
+    }
+
+
+    private void startWorkers() {
+
+        log.debug(format("Starting %d workers to walk %s", this.threads, this.base.getName()));
+
+        ExecutorService executor = this.runtime.getWalkerExecutor();
+        this.workers = new ArrayList<>(this.threads);
+        for (int i = 0; i < this.threads; i++) {
+            Worker worker = new Worker();
+            worker.future = executor.submit(() -> {
+                if (!worker.started.compareAndSet(false, true)) {
+                    // Skipped by the end of the walk
+                    return null;
+                }
+                Object item;
+                while ((item = this.queue.take()) != END) {
+                    process((FileObject) item);
+                }
+                return null;
+            });
+            this.workers.add(worker);
+        }
+    }
+
+
+    private void finish() {
+
+        if (this.workers == null) {
+            if (this.pending != null && this.failure.get() == null) {
+                process(this.pending);
+            }
+            this.pending = null;
+            return;
+        }
+
+        // Help with the files left, then stop the workers which started and skip the others
+        Object item;
+        while ((item = this.queue.poll()) != null) {
+            process((FileObject) item);
+        }
+
+        List<Worker> started = new ArrayList<>();
+        for (Worker worker : this.workers) {
+            if (!worker.started.compareAndSet(false, true)) {
+                started.add(worker);
+            }
+        }
+
+        try {
+            // Workers keep draining the queue after a failure, so it always makes room for the end markers
+            for (int i = 0; i < started.size(); i++) {
+                this.queue.put(END);
+            }
+            for (Worker worker : started) {
+                worker.future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.failure.compareAndSet(null, e);
+            for (Worker worker : started) {
+                worker.future.cancel(true);
+            }
+        }
+        catch (ExecutionException e) {
+            // Failures of the visits are recorded by process, this one comes from the worker itself
+            this.failure.compareAndSet(null, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+    }
+
+
+    private void process(@Nonnull FileObject file) {
+
+        try {
+            if (this.failure.get() == null) {
+                this.visitor.visit(file);
+            }
+        }
+        catch (Exception e) {
+            this.failure.compareAndSet(null, e);
+        }
+        finally {
+            if (file != this.base) {
+                release(file);
+            }
+        }
+    }
+
+
+    /**
+     * Evicts a file from the cache of its file system, so processed files do not pile up in memory
+     *
+     * @param file the file to evict
+     */
+    static void release(@Nonnull FileObject file) {
+
+        file.getFileSystem().getFileSystemManager().getFilesCache().removeFile(file.getFileSystem(), file.getName());
+    }
+
+
+    private static class Worker {
+
+        private final AtomicBoolean started = new AtomicBoolean();
+        private Future<?> future;
+    }
+
+
+    private static class Folder {
+
+        private final String path;
+        private final FileObject file;
+        private final boolean included;
+        private final boolean traverse;
+
+
+        Folder(@Nonnull String path, @Nonnull FileObject file, boolean included, boolean traverse) {
+
+            this.path = path;
+            this.file = file;
+            this.included = included;
+            this.traverse = traverse;
+        }
+    }
+
+
+    static class SelectInfo implements FileSelectInfo {
+
+        private final FileObject baseFolder;
+        private final FileObject file;
+        private final int depth;
+
+
+        SelectInfo(@Nonnull FileObject baseFolder, @Nonnull FileObject file, int depth) {
+
+            this.baseFolder = baseFolder;
+            this.file = file;
+            this.depth = depth;
+        }
+
+
+        @Override
+        public FileObject getBaseFolder() {
+
+            return baseFolder;
+        }
+
+
+        @Override
+        public FileObject getFile() {
+
+            return file;
+        }
+
+
+        @Override
+        public int getDepth() {
+
+            return depth;
+        }
+    }
+}
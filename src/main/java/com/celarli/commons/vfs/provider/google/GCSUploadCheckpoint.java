@@ -0,0 +1,157 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+
+/**
+ * The state of a resumable upload, as saved after each committed chunk. The options of the client, which hold its
+ * credentials, are left out of the saved state and replaced by the ones of the client restoring it. The upload id
+ * it keeps still grants write access to the upload without credentials, so checkpoints must be kept private.
+ */
+public class GCSUploadCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 3L;
+
+    /**
+     * The captured state of the upload session, serialized without the client options
+     */
+    private final byte[] state;
+    /**
+     * The number of source bytes handed over to the upload session
+     */
+    private final long offset;
+    /**
+     * Identifies the version of the source being uploaded, may be null
+     */
+    private final String source;
+
+
+    /**
+     * Constructor
+     *
+     * @param state  the captured state of the upload session
+     * @param offset the number of source bytes handed over to the upload session
+     * @throws IOException if the state could not be serialized
+     */
+    public GCSUploadCheckpoint(@Nonnull RestorableState<WriteChannel> state, long offset) throws IOException {
+
+        this(state, offset, null);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param state  the captured state of the upload session
+     * @param offset the number of source bytes handed over to the upload session
+     * @param source identifies the version of the source being uploaded, may be null
+     * @throws IOException if the state could not be serialized
+     */
+    public GCSUploadCheckpoint(@Nonnull RestorableState<WriteChannel> state, long offset, @Nullable String source)
+            throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new StateOutputStream(bytes)) {
+            outputStream.writeObject(state);
+        }
+        this.state = bytes.toByteArray();
+        this.offset = offset;
+        this.source = source;
+    }
+
+
+    /**
+     * Restores the upload session on the given client
+     *
+     * @param storage the client continuing the upload
+     * @return the channel writing the rest of the upload
+     * @throws IOException if the state could not be deserialized
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public WriteChannel restore(@Nonnull Storage storage) throws IOException {
+
+        try (ObjectInputStream inputStream = new StateInputStream(new ByteArrayInputStream(this.state),
+                storage.getOptions())) {
+
+            return ((RestorableState<WriteChannel>) inputStream.readObject()).restore();
+        }
+        catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+
+
+    public long getOffset() {
+
+        return offset;
+    }
+
+
+    @Nullable
+    public String getSource() {
+
+        return source;
+    }
+
+
+    /**
+     * Stands for the client options in serialized states
+     */
+    private enum ClientOptions {
+        INSTANCE
+    }
+
+
+    private static class StateOutputStream extends ObjectOutputStream {
+
+        StateOutputStream(@Nonnull OutputStream outputStream) throws IOException {
+
+            super(outputStream);
+            enableReplaceObject(true);
+        }
+
+
+        @Override
+        protected Object replaceObject(Object obj) {
+
+            return obj instanceof ServiceOptions ? ClientOptions.INSTANCE : obj;
+        }
+    }
+
+
+    private static class StateInputStream extends ObjectInputStream {
+
+        private final ServiceOptions<?, ?> options;
+
+
+        StateInputStream(@Nonnull InputStream inputStream, @Nonnull ServiceOptions<?, ?> options) throws IOException {
+
+            super(inputStream);
+            this.options = options;
+            enableResolveObject(true);
+        }
+
+
+        @Override
+        protected Object resolveObject(Object obj) {
+
+            return obj == ClientOptions.INSTANCE ? this.options : obj;
+        }
+    }
+}
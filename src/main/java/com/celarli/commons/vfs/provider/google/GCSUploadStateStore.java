@@ -0,0 +1,41 @@
+package com.celarli.commons.vfs.provider.google;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+
+/**
+ * Persists the checkpoints of resumable uploads so they can be continued by another process
+ */
+public interface GCSUploadStateStore {
+
+    /**
+     * Loads the checkpoint saved under the given key
+     *
+     * @param key the upload key
+     * @return the checkpoint, or null if there is none
+     * @throws IOException if the checkpoint could not be read
+     */
+    @Nullable
+    GCSUploadCheckpoint load(@Nonnull String key) throws IOException;
+
+
+    /**
+     * Saves a checkpoint, replacing the previous one saved under the same key
+     *
+     * @param key        the upload key
+     * @param checkpoint the checkpoint to save
+     * @throws IOException if the checkpoint could not be written
+     */
+    void save(@Nonnull String key, @Nonnull GCSUploadCheckpoint checkpoint) throws IOException;
+
+
+    /**
+     * Removes the checkpoint saved under the given key, if any
+     *
+     * @param key the upload key
+     * @throws IOException if the checkpoint could not be removed
+     */
+    void remove(@Nonnull String key) throws IOException;
+}
@@ -0,0 +1,129 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.auth.Credentials;
+import com.google.auth.ServiceAccountSigner;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+
+import javax.annotation.Nonnull;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Signs URLs from a bucket and a blob name, without fetching any metadata. Expirations are rounded up to a tenth of
+ * the requested duration, so that every request for the same blob within that window is served the same URL from a
+ * cache instead of computing a new signature. Time is read from the clock of the client, which signs with it.
+ */
+class GCSUrlSigner {
+
+    /**
+     * Entries no longer served are swept every time this many URLs are signed
+     */
+    private static final int SWEEP_INTERVAL = 1024;
+
+    /**
+     * The cache is cleared when it holds more entries than this, even after a sweep
+     */
+    private static final int MAX_ENTRIES = 100_000;
+
+    /**
+     * The GCS client
+     */
+    private final Storage storage;
+    /**
+     * The options signing with the credentials of the client, parsed once
+     */
+    private final Storage.SignUrlOption[] signUrlOptions;
+
+    private final ConcurrentMap<String, SignedUrl> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger signed = new AtomicInteger();
+
+
+    /**
+     * Constructor
+     *
+     * @param storage the GCS client
+     */
+    GCSUrlSigner(@Nonnull Storage storage) {
+
+        this.storage = storage;
+
+        Credentials credentials = storage.getOptions().getCredentials();
+        if (credentials instanceof ServiceAccountSigner) {
+            this.signUrlOptions =
+                    new Storage.SignUrlOption[] { Storage.SignUrlOption.signWith((ServiceAccountSigner) credentials) };
+        }
+        else {
+            this.signUrlOptions = new Storage.SignUrlOption[0];
+        }
+    }
+
+
+    /**
+     * Returns a URL granting access to the given blob for at least the given duration
+     *
+     * @param bucket   the bucket of the blob
+     * @param name     the name of the blob
+     * @param duration the validity of the URL, in seconds
+     * @return the signed URL
+     */
+    @Nonnull
+    URL sign(@Nonnull String bucket, @Nonnull String name, long duration) {
+
+        long now = this.storage.getOptions().getClock().millisTime();
+        long durationMillis = TimeUnit.SECONDS.toMillis(duration);
+        long granularity = Math.max(1000, durationMillis / 10);
+        long expiresAt = (now + durationMillis + granularity - 1) / granularity * granularity;
+
+        String key = bucket + '\n' + name + '\n' + expiresAt;
+        SignedUrl signedUrl = this.cache.get(key);
+        if (signedUrl == null) {
+            BlobInfo blobInfo = BlobInfo.newBuilder(bucket, name).build();
+            URL url = this.storage.signUrl(blobInfo, expiresAt - now, TimeUnit.MILLISECONDS, this.signUrlOptions);
+            // Later requests only round up to the same expiration, and get this URL, until then
+            signedUrl = new SignedUrl(url, expiresAt - durationMillis);
+
+            if (this.signed.incrementAndGet() % SWEEP_INTERVAL == 0) {
+                sweep(now);
+            }
+            this.cache.put(key, signedUrl);
+        }
+        return signedUrl.url;
+    }
+
+
+    private void sweep(long now) {
+
+        this.cache.values().removeIf(signedUrl -> signedUrl.servedUntil < now);
+        if (this.cache.size() > MAX_ENTRIES) {
+            this.cache.clear();
+        }
+    }
+
+
+    int getCacheSize() {
+
+        return this.cache.size();
+    }
+
+
+    private static class SignedUrl {
+
+        private final URL url;
+        /**
+         * The last time the URL is served, in milliseconds
+         */
+        private final long servedUntil;
+
+
+        SignedUrl(@Nonnull URL url, long servedUntil) {
+
+            this.url = url;
+            this.servedUntil = servedUntil;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.celarli.commons.vfs.provider.google;
 
+import com.google.api.client.http.HttpTransport;
 import org.apache.commons.vfs2.FileSystem;
 import org.apache.commons.vfs2.FileSystemConfigBuilder;
 import org.apache.commons.vfs2.FileSystemOptions;
@@ -9,6 +10,18 @@ public class GcsFileSystemConfigBuilder extends FileSystemConfigBuilder {
 
     private static final GcsFileSystemConfigBuilder BUILDER = new GcsFileSystemConfigBuilder();
 
+    private static final int DEFAULT_TRANSFER_THREADS = 8;
+
+    private static final int DEFAULT_UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+
+    private static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+
+    private static final int DEFAULT_CONTENT_CACHE_THRESHOLD = 16 * 1024;
+
 
     private GcsFileSystemConfigBuilder() {
 
@@ -81,4 +94,301 @@ public class GcsFileSystemConfigBuilder extends FileSystemConfigBuilder {
 
         return (Integer) getParam(opts, "clientType");
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Set the number of threads used to transfer files in parallel, i.e. while syncing
+     */
+    public void setTransferThreads(FileSystemOptions opts, Integer threads) {
+
+        setParam(opts, "transferThreads", threads);
+    }
+
+
+    /**
+     * Get the number of threads used to transfer files in parallel, i.e. while syncing
+     */
+    public Integer getTransferThreads(FileSystemOptions opts) {
+
+        return getInteger(opts, "transferThreads", DEFAULT_TRANSFER_THREADS);
+    }
+
+
+    /**
+     * Set whether uploads are checkpointed so an interrupted copy can be resumed by a later one
+     */
+    public void setResumableUploads(FileSystemOptions opts, Boolean resumable) {
+
+        setParam(opts, "resumableUploads", resumable);
+    }
+
+
+    /**
+     * Get whether uploads are checkpointed so an interrupted copy can be resumed by a later one
+     */
+    public Boolean getResumableUploads(FileSystemOptions opts) {
+
+        return getBoolean(opts, "resumableUploads", Boolean.FALSE);
+    }
+
+
+    /**
+     * Set the store holding the checkpoints of resumable uploads. Checkpoints hold the upload ids, which grant write
+     * access to the uploads without credentials, so the store must not be readable by others.
+     */
+    public void setUploadStateStore(FileSystemOptions opts, GCSUploadStateStore store) {
+
+        setParam(opts, "uploadStateStore", store);
+    }
+
+
+    /**
+     * Get the store holding the checkpoints of resumable uploads, by default an owner only directory below the
+     * temporary directory
+     */
+    public GCSUploadStateStore getUploadStateStore(FileSystemOptions opts) {
+
+        GCSUploadStateStore store = (GCSUploadStateStore) getParam(opts, "uploadStateStore");
+        return store != null ? store : new GCSFileUploadStateStore();
+    }
+
+
+    /**
+     * Set the size of the chunks sent to GCS by uploads, rounded down to a multiple of 256 KiB
+     */
+    public void setUploadChunkSize(FileSystemOptions opts, Integer chunkSize) {
+
+        setParam(opts, "uploadChunkSize", chunkSize);
+    }
+
+
+    /**
+     * Get the size of the chunks sent to GCS by uploads
+     */
+    public Integer getUploadChunkSize(FileSystemOptions opts) {
+
+        return getInteger(opts, "uploadChunkSize", DEFAULT_UPLOAD_CHUNK_SIZE);
+    }
+
+
+    /**
+     * Set whether everything written to GCS is gzip compressed and stored with a gzip content encoding
+     */
+    public void setGzipEnabled(FileSystemOptions opts, Boolean enabled) {
+
+        setParam(opts, "gzipEnabled", enabled);
+    }
+
+
+    /**
+     * Get whether everything written to GCS is gzip compressed and stored with a gzip content encoding
+     */
+    public Boolean getGzipEnabled(FileSystemOptions opts) {
+
+        return getBoolean(opts, "gzipEnabled", Boolean.FALSE);
+    }
+
+
+    /**
+     * Set the content types, i.e. text/* or application/json, which are gzip compressed when written to GCS
+     */
+    public void setGzipContentTypes(FileSystemOptions opts, String[] contentTypes) {
+
+        setParam(opts, "gzipContentTypes", contentTypes);
+    }
+
+
+    /**
+     * Get the content types, i.e. text/* or application/json, which are gzip compressed when written to GCS
+     */
+    public String[] getGzipContentTypes(FileSystemOptions opts) {
+
+        return (String[]) getParam(opts, "gzipContentTypes");
+    }
+
+
+    /**
+     * Set the maximum number of metadata, listing and read requests in flight per bucket. The effective limit adapts
+     * below it when GCS throttles.
+     */
+    public void setMaxConcurrentRequests(FileSystemOptions opts, Integer maxConcurrentRequests) {
+
+        setParam(opts, "maxConcurrentRequests", maxConcurrentRequests);
+    }
+
+
+    /**
+     * Get the maximum number of metadata, listing and read requests in flight per bucket
+     */
+    public Integer getMaxConcurrentRequests(FileSystemOptions opts) {
+
+        return getInteger(opts, "maxConcurrentRequests", DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+
+    /**
+     * Set the maximum number of times a failed metadata, listing or read request is retried, within the retry budget
+     */
+    public void setMaxRetries(FileSystemOptions opts, Integer maxRetries) {
+
+        setParam(opts, "maxRetries", maxRetries);
+    }
+
+
+    /**
+     * Get the maximum number of times a failed metadata, listing or read request is retried, within the retry budget
+     */
+    public Integer getMaxRetries(FileSystemOptions opts) {
+
+        return getInteger(opts, "maxRetries", DEFAULT_MAX_RETRIES);
+    }
+
+
+    /**
+     * Set whether metadata gets and list pages slower than the hedge percentile are raced against a second attempt
+     */
+    public void setHedgedRequests(FileSystemOptions opts, Boolean hedged) {
+
+        setParam(opts, "hedgedRequests", hedged);
+    }
+
+
+    /**
+     * Get whether metadata gets and list pages slower than the hedge percentile are raced against a second attempt
+     */
+    public Boolean getHedgedRequests(FileSystemOptions opts) {
+
+        return getBoolean(opts, "hedgedRequests", Boolean.FALSE);
+    }
+
+
+    /**
+     * Set the latency percentile, between 0 and 1, after which a request is hedged
+     */
+    public void setHedgePercentile(FileSystemOptions opts, Double percentile) {
+
+        setParam(opts, "hedgePercentile", percentile);
+    }
+
+
+    /**
+     * Get the latency percentile, between 0 and 1, after which a request is hedged
+     */
+    public Double getHedgePercentile(FileSystemOptions opts) {
+
+        return getDouble(opts, "hedgePercentile", DEFAULT_HEDGE_PERCENTILE);
+    }
+
+
+    /**
+     * Set the maximum total size, in bytes, of the small blob contents cached in memory. The cache is disabled by
+     * default.
+     */
+    public void setContentCacheSize(FileSystemOptions opts, Long size) {
+
+        setParam(opts, "contentCacheSize", size);
+    }
+
+
+    /**
+     * Get the maximum total size, in bytes, of the small blob contents cached in memory
+     */
+    public Long getContentCacheSize(FileSystemOptions opts) {
+
+        return getLong(opts, "contentCacheSize", 0L);
+    }
+
+
+    /**
+     * Set the size, in bytes, up to which the content of a blob is cached in memory. Gzip encoded blobs are cached
+     * decoded, and only when they record their uncompressed size.
+     */
+    public void setContentCacheThreshold(FileSystemOptions opts, Integer threshold) {
+
+        setParam(opts, "contentCacheThreshold", threshold);
+    }
+
+
+    /**
+     * Get the size, in bytes, up to which the content of a blob is cached in memory
+     */
+    public Integer getContentCacheThreshold(FileSystemOptions opts) {
+
+        return getInteger(opts, "contentCacheThreshold", DEFAULT_CONTENT_CACHE_THRESHOLD);
+    }
+
+
+    /**
+     * Set the maximum number of requests in flight across all buckets of the runtime. Unbounded by default.
+     */
+    public void setMaxInFlightRequests(FileSystemOptions opts, Integer maxInFlightRequests) {
+
+        setParam(opts, "maxInFlightRequests", maxInFlightRequests);
+    }
+
+
+    /**
+     * Get the maximum number of requests in flight across all buckets of the runtime
+     */
+    public Integer getMaxInFlightRequests(FileSystemOptions opts) {
+
+        return getInteger(opts, "maxInFlightRequests", 0);
+    }
+
+
+    /**
+     * Set the memory, in bytes, the content cache and transfer buffers of the runtime may hold together. Unbounded
+     * by default.
+     */
+    public void setMemoryBudget(FileSystemOptions opts, Long memoryBudget) {
+
+        setParam(opts, "memoryBudget", memoryBudget);
+    }
+
+
+    /**
+     * Get the memory, in bytes, the content cache and transfer buffers of the runtime may hold together
+     */
+    public Long getMemoryBudget(FileSystemOptions opts) {
+
+        return getLong(opts, "memoryBudget", 0L);
+    }
+
+
+    /**
+     * Set the HTTP transport of the runtime built from the options, i.e. one going through a proxy. The runtime
+     * creates a transport of its own by default, and does not shut down a transport set here.
+     */
+    public void setHttpTransport(FileSystemOptions opts, HttpTransport transport) {
+
+        setParam(opts, "httpTransport", transport);
+    }
+
+
+    /**
+     * Get the HTTP transport of the runtime built from the options, or null if the runtime creates its own
+     */
+    public HttpTransport getHttpTransport(FileSystemOptions opts) {
+
+        return (HttpTransport) getParam(opts, "httpTransport");
+    }
+
+
+    /**
+     * Set the runtime shared by the file systems, which then use its transport, clients, threads, concurrency limits
+     * and memory budget instead of their own
+     */
+    public void setRuntime(FileSystemOptions opts, GCSRuntime runtime) {
+
+        setParam(opts, "runtime", runtime);
+    }
+
+
+    /**
+     * Get the runtime shared by the file systems, or null if each file system has its own
+     */
+    public GCSRuntime getRuntime(FileSystemOptions opts) {
+
+        return (GCSRuntime) getParam(opts, "runtime");
+    }
+}
@@ -0,0 +1,48 @@
+package com.celarli.commons.vfs.provider.google;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class GCSAdaptiveLimiterTest {
+
+    @Test
+    public void testLimitBacksOffWhenThrottled() throws Exception {
+
+        GCSAdaptiveLimiter limiter = new GCSAdaptiveLimiter(8);
+
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+        }
+        assertFalse(limiter.tryAcquire());
+
+        limiter.release(true);
+        assertEquals(4, limiter.getLimit());
+
+        // A burst of throttled requests only backs off once
+        limiter.release(true);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(6, limiter.getInFlight());
+        assertFalse(limiter.tryAcquire());
+    }
+
+
+    @Test
+    public void testLimitGrowsBackOnSuccess() throws Exception {
+
+        GCSAdaptiveLimiter limiter = new GCSAdaptiveLimiter(4);
+
+        limiter.acquire();
+        limiter.release(true);
+        assertEquals(2, limiter.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+}
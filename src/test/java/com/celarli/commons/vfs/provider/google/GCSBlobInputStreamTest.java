@@ -0,0 +1,105 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class GCSBlobInputStreamTest {
+
+    private static final String BUCKET = "reads";
+
+    private LocalGCSServer server;
+    private DefaultFileSystemManager fileSystemManager;
+    private FileSystemOptions fileSystemOptions;
+
+
+    @Before
+    public void setUp() throws Exception {
+
+        server = new LocalGCSServer(BUCKET);
+
+        fileSystemOptions = server.newOptions();
+        GcsFileSystemConfigBuilder.getInstance().setContentCacheSize(fileSystemOptions, 1024L * 1024);
+        fileSystemManager = server.newManager();
+    }
+
+
+    @After
+    public void tearDown() {
+
+        fileSystemManager.close();
+        server.close();
+    }
+
+
+    @Test
+    public void testScheduledClientDoesNotRetry() throws Exception {
+
+        GCSFileSystem fileSystem = (GCSFileSystem) resolve("blob").getFileSystem();
+        assertEquals(1, fileSystem.getStorage().getOptions().getRetrySettings().getMaxAttempts());
+    }
+
+
+    @Test
+    public void testFailedReadsAreRetriedByTheScheduler() throws Exception {
+
+        // Larger than the chunk of a reader, so the blob is read in several requests
+        byte[] content = new byte[5 * 1024 * 1024];
+        new Random(0).nextBytes(content);
+        server.putObject(BUCKET, "blob", content);
+        FileObject file = resolve("blob");
+        file.getContent().getSize();
+
+        server.failNext(2);
+        try (InputStream inputStream = file.getContent().getInputStream()) {
+            byte[] first = new byte[1024];
+            ByteStreams.readFully(inputStream, first);
+
+            // A later chunk fails, the reader is opened again where it stopped
+            server.failNext(1);
+            byte[] read = new byte[content.length];
+            System.arraycopy(first, 0, read, 0, first.length);
+            ByteStreams.readFully(inputStream, read, first.length, read.length - first.length);
+            assertEquals(-1, inputStream.read());
+            assertArrayEquals(content, read);
+        }
+        assertEquals(3, server.getFailedCount());
+    }
+
+
+    @Test
+    public void testFailedCachedReadIsRetriedByTheScheduler() throws Exception {
+
+        byte[] content = new byte[1024];
+        new Random(0).nextBytes(content);
+        server.putObject(BUCKET, "small", content);
+        GCSFileObject file = (GCSFileObject) resolve("small");
+        file.getContent().getSize();
+
+        server.failNext(1);
+        ByteBuffer cached = file.getCachedContent();
+        byte[] read = new byte[cached.remaining()];
+        cached.get(read);
+        assertArrayEquals(content, read);
+        assertEquals(1, server.getFailedCount());
+    }
+
+
+    private FileObject resolve(String path) throws Exception {
+
+        return fileSystemManager.resolveFile("gcs://" + BUCKET + "/" + path, fileSystemOptions);
+    }
+}
@@ -0,0 +1,172 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import com.google.cloud.storage.BlobInfo;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class GCSCompressionTest {
+
+    private static final String BUCKET = "compression";
+
+    private static final byte[] CONTENT = String.join("", Collections.nCopies(1000, "compressible "))
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testMatches() {
+
+        String[] types = { "text/*", "application/json" };
+
+        assertTrue(GCSCompression.matches("text/plain", types));
+        assertTrue(GCSCompression.matches("application/json", types));
+        assertFalse(GCSCompression.matches("application/json-patch", types));
+        assertFalse(GCSCompression.matches("image/png", types));
+        assertFalse(GCSCompression.matches(null, types));
+        assertFalse(GCSCompression.matches("text/plain", null));
+    }
+
+
+    @Test
+    public void testGetContentSize() {
+
+        BlobInfo compressed = BlobInfo.newBuilder(BUCKET, "blob").setContentEncoding("gzip")
+                .setMetadata(Collections.singletonMap(GCSCompression.UNCOMPRESSED_SIZE, "42")).build();
+        assertEquals(42, GCSCompression.getContentSize(compressed));
+
+        // Only compressed blobs have an uncompressed size
+        BlobInfo plain = compressed.toBuilder().setContentEncoding(null).build();
+        assertEquals(0, GCSCompression.getContentSize(plain));
+    }
+
+
+    @Test
+    public void testDecompress() throws Exception {
+
+        try (InputStream inputStream = GCSCompression.decompress(new ByteArrayInputStream(gzip(CONTENT)))) {
+            assertArrayEquals(CONTENT, ByteStreams.toByteArray(inputStream));
+        }
+    }
+
+
+    @Test
+    public void testCompressedSizes() throws Exception {
+
+        try (LocalGCSServer server = new LocalGCSServer(BUCKET)) {
+            FileSystemOptions fileSystemOptions = server.newOptions();
+            GcsFileSystemConfigBuilder.getInstance().setGzipEnabled(fileSystemOptions, true);
+
+            DefaultFileSystemManager fileSystemManager = server.newManager();
+            try {
+                // Written through a stream, the size is only known once closed
+                GCSFileObject streamed = (GCSFileObject) fileSystemManager.resolveFile(
+                        "gcs://" + BUCKET + "/streamed.txt", fileSystemOptions);
+                try (OutputStream outputStream = streamed.getContent().getOutputStream()) {
+                    outputStream.write(CONTENT);
+                }
+                assertSizes(streamed);
+
+                // Copied, the size is set when the blob is created
+                File source = folder.newFile("copied.txt");
+                Files.write(source.toPath(), CONTENT);
+                GCSFileObject copied = (GCSFileObject) fileSystemManager.resolveFile(
+                        "gcs://" + BUCKET + "/copied.txt", fileSystemOptions);
+                copied.copyFrom(fileSystemManager.resolveFile(source.getAbsolutePath()), Selectors.SELECT_SELF);
+                assertSizes(copied);
+            }
+            finally {
+                fileSystemManager.close();
+            }
+        }
+    }
+
+
+    @Test
+    public void testGzipContentIsDecodedOnce() throws Exception {
+
+        // Content which is gzip itself, compressed again when written
+        byte[] content = gzip(CONTENT);
+
+        try (LocalGCSServer server = new LocalGCSServer(BUCKET)) {
+            FileSystemOptions fileSystemOptions = server.newOptions();
+            GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+            builder.setGzipEnabled(fileSystemOptions, true);
+            builder.setContentCacheSize(fileSystemOptions, 1024L * 1024);
+
+            DefaultFileSystemManager fileSystemManager = server.newManager();
+            try {
+                GCSFileObject file = (GCSFileObject) fileSystemManager.resolveFile(
+                        "gcs://" + BUCKET + "/nested.txt", fileSystemOptions);
+                try (OutputStream outputStream = file.getContent().getOutputStream()) {
+                    outputStream.write(content);
+                }
+                file.refresh();
+                assertTrue(GCSCompression.isCompressed(file.getBlob()));
+
+                // Read once from GCS into the cache, then from the cache
+                for (int i = 0; i < 2; i++) {
+                    try (InputStream inputStream = file.getContent().getInputStream()) {
+                        assertArrayEquals(content, ByteStreams.toByteArray(inputStream));
+                    }
+                }
+
+                ByteBuffer cached = file.getCachedContent();
+                byte[] read = new byte[cached.remaining()];
+                cached.get(read);
+                assertArrayEquals(content, read);
+            }
+            finally {
+                fileSystemManager.close();
+            }
+        }
+    }
+
+
+    private static byte[] gzip(byte[] content) throws Exception {
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+            outputStream.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+
+    private static void assertSizes(FileObject file) throws Exception {
+
+        file.refresh();
+        assertEquals(CONTENT.length, file.getContent().getSize());
+        assertNotEquals(CONTENT.length, ((GCSFileObject) file).getStoredSize());
+
+        try (InputStream inputStream = file.getContent().getInputStream()) {
+            assertArrayEquals(CONTENT, ByteStreams.toByteArray(inputStream));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.storage.BlobId;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class GCSContentCacheTest {
+
+    @Test
+    public void testOnlySmallVersionedBlobsAreCacheable() {
+
+        GCSContentCache cache = new GCSContentCache(100, 10);
+
+        assertTrue(cache.isCacheable(BlobId.of("bucket", "name", 1L), 10L));
+        assertFalse(cache.isCacheable(BlobId.of("bucket", "name", 1L), 11L));
+        assertFalse(cache.isCacheable(BlobId.of("bucket", "name"), 10L));
+        assertFalse(new GCSContentCache(0, 10).isCacheable(BlobId.of("bucket", "name", 1L), 1L));
+    }
+
+
+    @Test
+    public void testEntriesAreKeyedByGeneration() {
+
+        GCSContentCache cache = new GCSContentCache(100, 10);
+
+        cache.put(BlobId.of("bucket", "name", 1L), new byte[] { 1 });
+
+        assertNotNull(cache.get(BlobId.of("bucket", "name", 1L)));
+        assertNull(cache.get(BlobId.of("bucket", "name", 2L)));
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+
+        GCSContentCache cache = new GCSContentCache(20, 10);
+
+        cache.put(BlobId.of("bucket", "a", 1L), new byte[10]);
+        cache.put(BlobId.of("bucket", "b", 1L), new byte[10]);
+        cache.get(BlobId.of("bucket", "a", 1L));
+        cache.put(BlobId.of("bucket", "c", 1L), new byte[10]);
+
+        assertNotNull(cache.get(BlobId.of("bucket", "a", 1L)));
+        assertNull(cache.get(BlobId.of("bucket", "b", 1L)));
+        assertNotNull(cache.get(BlobId.of("bucket", "c", 1L)));
+        assertEquals(20, cache.getSize());
+    }
+}
@@ -0,0 +1,140 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.RestorableState;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+public class GCSFileUploadStateStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+
+        GCSFileUploadStateStore store = new GCSFileUploadStateStore(folder.newFolder());
+
+        assertNull(store.load("upload"));
+
+        store.save("upload", new GCSUploadCheckpoint(new State(), 42));
+        store.save("upload", new GCSUploadCheckpoint(new State(), 84));
+
+        GCSUploadCheckpoint checkpoint = store.load("upload");
+        assertNotNull(checkpoint);
+        assertEquals(84, checkpoint.getOffset());
+
+        store.remove("upload");
+        assertNull(store.load("upload"));
+    }
+
+
+    @Test
+    public void testClientOptionsAreNotSaved() throws Exception {
+
+        File directory = folder.newFolder();
+        GCSFileUploadStateStore store = new GCSFileUploadStateStore(directory);
+
+        StorageOptions savedOptions = StorageOptions.newBuilder().setProjectId("saved-project")
+                .setCredentials(NoCredentials.getInstance()).build();
+        store.save("upload", new GCSUploadCheckpoint(new ClientState(savedOptions), 42));
+
+        byte[] saved = Files.readAllBytes(new File(directory, "upload.upload").toPath());
+        assertFalse(new String(saved, StandardCharsets.ISO_8859_1).contains("saved-project"));
+
+        // The state gets the options of the client restoring it
+        Storage storage = StorageOptions.newBuilder().setProjectId("live-project")
+                .setCredentials(NoCredentials.getInstance()).build().getService();
+        ClientState.restored = null;
+        store.load("upload").restore(storage);
+        assertSame(storage.getOptions(), ClientState.restored);
+    }
+
+
+    @Test
+    public void testCapturedUploadIsResumed() throws Exception {
+
+        byte[] content = new byte[3 * 256 * 1024];
+        new Random(0).nextBytes(content);
+        int offset = 256 * 1024 + 17;
+
+        try (LocalGCSServer server = new LocalGCSServer("upload");
+                GCSRuntime runtime = new GCSRuntime(server.newOptions())) {
+
+            Storage storage = runtime.getClient(server.newOptions(), false);
+
+            BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of("upload", "blob")).build();
+            WriteChannel writer = storage.writer(blobInfo);
+            writer.setChunkSize(256 * 1024);
+            writer.write(ByteBuffer.wrap(content, 0, offset));
+            RestorableState<WriteChannel> state = writer.capture();
+
+            // The restored channel only reaches the server through the transport of the live client
+            GCSFileUploadStateStore store = new GCSFileUploadStateStore(folder.newFolder());
+            store.save("upload", new GCSUploadCheckpoint(state, offset));
+
+            GCSUploadCheckpoint checkpoint = store.load("upload");
+            try (WriteChannel restored = checkpoint.restore(storage)) {
+                restored.write(ByteBuffer.wrap(content, (int) checkpoint.getOffset(),
+                        content.length - (int) checkpoint.getOffset()));
+            }
+            assertArrayEquals(content, storage.readAllBytes(BlobId.of("upload", "blob")));
+        }
+    }
+
+
+    private static class State implements RestorableState<WriteChannel>, Serializable {
+
+        @Override
+        public WriteChannel restore() {
+
+            throw new UnsupportedOperationException();
+        }
+    }
+
+
+    private static class ClientState implements RestorableState<WriteChannel>, Serializable {
+
+        private static ServiceOptions<?, ?> restored;
+
+        private final ServiceOptions<?, ?> options;
+
+
+        ClientState(ServiceOptions<?, ?> options) {
+
+            this.options = options;
+        }
+
+
+        @Override
+        public WriteChannel restore() {
+
+            restored = this.options;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import com.google.cloud.storage.StorageException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class GCSLocalTransferTest {
+
+    private static final String BUCKET = "transfer";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalGCSServer server;
+    private DefaultFileSystemManager fileSystemManager;
+    private FileSystemOptions fileSystemOptions;
+
+
+    @Before
+    public void setUp() throws Exception {
+
+        server = new LocalGCSServer(BUCKET);
+
+        fileSystemOptions = server.newOptions();
+        fileSystemManager = server.newManager();
+    }
+
+
+    @After
+    public void tearDown() {
+
+        fileSystemManager.close();
+        server.close();
+    }
+
+
+    @Test
+    public void testUploadAndDownload() throws Exception {
+
+        // Several transfer buffers, the last one partly filled
+        byte[] content = new byte[1024 * 1024 + 17];
+        new Random(0).nextBytes(content);
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), content);
+
+        GCSFileObject blob = (GCSFileObject) fileSystemManager.resolveFile("gcs://" + BUCKET + "/blob",
+                fileSystemOptions);
+        blob.copyFrom(fileSystemManager.resolveFile(source.getAbsolutePath()), Selectors.SELECT_SELF);
+
+        File target = new File(folder.getRoot(), "target");
+        blob.copyTo(fileSystemManager.resolveFile(target.getAbsolutePath()), Selectors.SELECT_SELF, null);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+
+    @Test
+    public void testFailedDownloadLeavesNoFile() throws Exception {
+
+        server.putObject(BUCKET, "blob", new byte[1024]);
+        GCSFileObject blob = (GCSFileObject) fileSystemManager.resolveFile("gcs://" + BUCKET + "/blob",
+                fileSystemOptions);
+        blob.getContent().getSize();
+        GCSFileSystem fileSystem = (GCSFileSystem) blob.getFileSystem();
+
+        // Deleted once attached, so the download itself fails
+        fileSystem.getStorage().delete(blob.getBlob().getBlobId());
+
+        File target = folder.newFolder("target");
+        try {
+            GCSLocalTransfer.download(fileSystem.getStorage(), fileSystem.getRuntime(), blob.getBlob(),
+                    new File(target, "blob"), 1, null);
+            fail();
+        }
+        catch (StorageException e) {
+            assertEquals(404, e.getCode());
+        }
+
+        assertEquals(0, target.list().length);
+    }
+}
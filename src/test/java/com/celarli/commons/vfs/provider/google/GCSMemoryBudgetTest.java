@@ -0,0 +1,51 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.cloud.storage.BlobId;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class GCSMemoryBudgetTest {
+
+    @Test
+    public void testCacheStaysWithinBudget() {
+
+        GCSMemoryBudget budget = new GCSMemoryBudget(15);
+        GCSContentCache cache = new GCSContentCache(100, 10, budget);
+
+        cache.put(BlobId.of("bucket", "a", 1L), new byte[10]);
+        cache.put(BlobId.of("bucket", "b", 1L), new byte[10]);
+
+        assertNull(cache.get(BlobId.of("bucket", "a", 1L)));
+        assertNotNull(cache.get(BlobId.of("bucket", "b", 1L)));
+        assertEquals(10, budget.getUsed());
+    }
+
+
+    @Test
+    public void testBuffersReclaimCachedMemory() throws InterruptedException {
+
+        GCSMemoryBudget budget = new GCSMemoryBudget(20);
+        GCSContentCache cache = new GCSContentCache(100, 10, budget);
+        budget.setReclaimer(cache::evictEldest);
+
+        cache.put(BlobId.of("bucket", "a", 1L), new byte[10]);
+        cache.put(BlobId.of("bucket", "b", 1L), new byte[10]);
+
+        assertEquals(15, budget.reserve(15));
+        assertNull(cache.get(BlobId.of("bucket", "a", 1L)));
+        assertNull(cache.get(BlobId.of("bucket", "b", 1L)));
+        assertFalse(budget.tryReserve(10));
+
+        budget.release(15);
+        assertTrue(budget.tryReserve(10));
+        // Buffers larger than the budget only take the whole budget
+        budget.release(10);
+        assertEquals(20, budget.reserve(100));
+    }
+}
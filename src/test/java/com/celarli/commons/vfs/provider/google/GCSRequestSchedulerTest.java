@@ -0,0 +1,140 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class GCSRequestSchedulerTest {
+
+    private static final String BUCKET = "hedge";
+    private static final int MAX_CONCURRENT_REQUESTS = 8;
+    private static final int MAX_IN_FLIGHT_REQUESTS = 4;
+
+    private LocalGCSServer server;
+    private GCSRuntime runtime;
+    private Storage storage;
+    private GCSRequestScheduler scheduler;
+    private GCSAdaptiveLimiter limiter;
+
+
+    @Before
+    public void setUp() throws Exception {
+
+        server = new LocalGCSServer(BUCKET);
+        server.putObject(BUCKET, "blob", new byte[16]);
+
+        FileSystemOptions fileSystemOptions = server.newOptions();
+        GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+        builder.setMaxConcurrentRequests(fileSystemOptions, MAX_CONCURRENT_REQUESTS);
+        builder.setMaxInFlightRequests(fileSystemOptions, MAX_IN_FLIGHT_REQUESTS);
+        runtime = new GCSRuntime(fileSystemOptions);
+        storage = runtime.getClient(fileSystemOptions, true);
+        scheduler = new GCSRequestScheduler(runtime, 0, true);
+        limiter = runtime.getGovernor(BUCKET).limiter;
+
+        // Enough samples for the latency percentile, which the delayed requests below exceed by far
+        server.setLatency(20, 0);
+        for (int i = 0; i < 32; i++) {
+            get();
+        }
+        server.setLatency(0, 0);
+    }
+
+
+    @After
+    public void tearDown() {
+
+        runtime.close();
+        server.close();
+    }
+
+
+    @Test
+    public void testSlowPrimaryKeepsItsSlotsUntilItCompletes() throws Exception {
+
+        long requests = server.getRequestCount();
+        server.delayNext(1000);
+
+        assertNotNull(get());
+        assertEquals(requests + 2, server.getRequestCount());
+
+        // The hedge won, the primary is still in flight
+        assertEquals(1, limiter.getInFlight());
+        awaitIdle();
+        assertSlotsBalanced();
+    }
+
+
+    @Test
+    public void testThrottledPrimaryIsReportedAfterLosing() throws Exception {
+
+        server.throttleNext(500);
+
+        assertNotNull(get());
+        assertEquals(1, limiter.getInFlight());
+        awaitIdle();
+
+        assertEquals(1, server.getThrottledCount());
+        assertEquals(MAX_CONCURRENT_REQUESTS / 2, limiter.getLimit());
+        assertSlotsBalanced();
+    }
+
+
+    @Test
+    public void testFailedHedgeFallsBackToThePrimary() throws Exception {
+
+        long requests = server.getRequestCount();
+        server.delayNext(500);
+        server.failNext(1);
+
+        assertNotNull(get());
+        assertEquals(requests + 2, server.getRequestCount());
+        assertEquals(1, server.getFailedCount());
+
+        // Both attempts completed, and the failure of the hedge lowered the limit
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(MAX_CONCURRENT_REQUESTS / 2, limiter.getLimit());
+        assertSlotsBalanced();
+    }
+
+
+    private Blob get() throws Exception {
+
+        return scheduler.execute(BUCKET, true, () -> storage.get(BlobId.of(BUCKET, "blob")));
+    }
+
+
+    private void awaitIdle() throws InterruptedException {
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (limiter.getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+
+
+    private void assertSlotsBalanced() {
+
+        for (int i = 0; i < MAX_IN_FLIGHT_REQUESTS; i++) {
+            assertTrue(runtime.tryAcquireRequest());
+        }
+        assertFalse(runtime.tryAcquireRequest());
+        for (int i = 0; i < MAX_IN_FLIGHT_REQUESTS; i++) {
+            runtime.releaseRequest();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import com.google.cloud.storage.BlobId;
+import org.apache.commons.net.io.CopyStreamEvent;
+import org.apache.commons.net.io.CopyStreamListener;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class GCSResumableUploadTest {
+
+    private static final String BUCKET = "uploads";
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalGCSServer server;
+    private DefaultFileSystemManager fileSystemManager;
+    private FileSystemOptions fileSystemOptions;
+    private File checkpoints;
+    private File source;
+
+
+    @Before
+    public void setUp() throws Exception {
+
+        server = new LocalGCSServer(BUCKET);
+
+        checkpoints = folder.newFolder("checkpoints");
+        fileSystemOptions = server.newOptions();
+        GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+        builder.setResumableUploads(fileSystemOptions, true);
+        builder.setUploadChunkSize(fileSystemOptions, CHUNK_SIZE);
+        builder.setUploadStateStore(fileSystemOptions, new GCSFileUploadStateStore(checkpoints));
+        fileSystemManager = server.newManager();
+
+        source = folder.newFile("source");
+    }
+
+
+    @After
+    public void tearDown() {
+
+        fileSystemManager.close();
+        server.close();
+    }
+
+
+    @Test
+    public void testInterruptedUploadIsResumed() throws Exception {
+
+        byte[] content = write(4 * CHUNK_SIZE + 17, 0);
+        interruptAfterFirstChunk();
+        assertEquals(1, checkpoints.list().length);
+
+        // Only the chunks the interrupted upload did not commit are sent
+        long uploaded = server.getUploadedBytes();
+        copy(null);
+        assertEquals(content.length - CHUNK_SIZE, server.getUploadedBytes() - uploaded);
+        assertArrayEquals(content, read());
+        assertEquals(0, checkpoints.list().length);
+    }
+
+
+    @Test
+    public void testCheckpointOfChangedSourceIsDiscarded() throws Exception {
+
+        write(4 * CHUNK_SIZE + 17, 0);
+        interruptAfterFirstChunk();
+
+        byte[] content = write(3 * CHUNK_SIZE + 5, 1);
+        assertTrue(source.setLastModified(source.lastModified() + TimeUnit.MINUTES.toMillis(1)));
+
+        long uploaded = server.getUploadedBytes();
+        copy(null);
+        assertEquals(content.length, server.getUploadedBytes() - uploaded);
+        assertArrayEquals(content, read());
+        assertEquals(0, checkpoints.list().length);
+    }
+
+
+    /**
+     * Fails the upload of the second chunk with a status the client does not retry
+     */
+    private void interruptAfterFirstChunk() throws Exception {
+
+        CopyStreamListener listener = new CopyStreamListener() {
+
+            @Override
+            public void bytesTransferred(CopyStreamEvent event) {
+
+            }
+
+
+            @Override
+            public void bytesTransferred(long totalBytesTransferred, int bytesTransferred, long streamSize) {
+
+                if (totalBytesTransferred == CHUNK_SIZE) {
+                    server.failNext(1, 400);
+                }
+            }
+        };
+
+        try {
+            copy(listener);
+            fail();
+        }
+        catch (FileSystemException e) {
+            assertEquals(1, server.getFailedCount());
+        }
+    }
+
+
+    private byte[] write(int size, long seed) throws Exception {
+
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        Files.write(source.toPath(), content);
+        return content;
+    }
+
+
+    private void copy(CopyStreamListener listener) throws Exception {
+
+        GCSFileObject blob = (GCSFileObject) fileSystemManager.resolveFile("gcs://" + BUCKET + "/blob",
+                fileSystemOptions);
+        blob.copyFrom(fileSystemManager.resolveFile(source.getAbsolutePath()), Selectors.SELECT_SELF, listener);
+    }
+
+
+    private byte[] read() throws Exception {
+
+        GCSFileSystem fileSystem = (GCSFileSystem) fileSystemManager.resolveFile("gcs://" + BUCKET + "/blob",
+                fileSystemOptions).getFileSystem();
+        return fileSystem.getStorage().readAllBytes(BlobId.of(BUCKET, "blob"));
+    }
+}
@@ -0,0 +1,221 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.net.io.CopyStreamEvent;
+import org.apache.commons.net.io.CopyStreamListener;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelectInfo;
+import org.apache.commons.vfs2.FileSelector;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class GCSSyncTest {
+
+    private static final String BUCKET = "sync";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalGCSServer server;
+    private DefaultFileSystemManager fileSystemManager;
+    private FileSystemOptions fileSystemOptions;
+    private File source;
+
+
+    @Before
+    public void setUp() throws Exception {
+
+        server = new LocalGCSServer(BUCKET);
+
+        fileSystemOptions = server.newOptions();
+        fileSystemManager = server.newManager();
+
+        source = folder.newFolder("source");
+        write(new File(source, "a.txt"), "aaaa");
+        write(new File(source, "b.txt"), "bbbb");
+        write(new File(folder.newFolder("source", "sub"), "c.txt"), "cccc");
+    }
+
+
+    @After
+    public void tearDown() {
+
+        fileSystemManager.close();
+        server.close();
+    }
+
+
+    @Test
+    public void testUnchangedFilesAreSkipped() throws Exception {
+
+        GCSSyncResult result = sync(Selectors.SELECT_ALL, false);
+        assertEquals(3, result.getFilesCopied());
+        assertEquals(0, result.getFilesSkipped());
+
+        result = sync(Selectors.SELECT_ALL, false);
+        assertEquals(0, result.getFilesCopied());
+        assertEquals(3, result.getFilesSkipped());
+    }
+
+
+    @Test
+    public void testOlderFileOfSameSizeIsCopied() throws Exception {
+
+        sync(Selectors.SELECT_ALL, false);
+
+        // As restored by tar or cp -p
+        File file = new File(source, "a.txt");
+        long lastModified = file.lastModified();
+        write(file, "zzzz");
+        assertTrue(file.setLastModified(lastModified - TimeUnit.DAYS.toMillis(1)));
+
+        GCSSyncResult result = sync(Selectors.SELECT_ALL, false);
+        assertEquals(1, result.getFilesCopied());
+        assertEquals(2, result.getFilesSkipped());
+        assertEquals("zzzz", read("dest/a.txt"));
+    }
+
+
+    @Test
+    public void testTouchedFileIsComparedByChecksum() throws Exception {
+
+        sync(Selectors.SELECT_ALL, false);
+
+        File file = new File(source, "a.txt");
+        assertTrue(file.setLastModified(file.lastModified() - TimeUnit.DAYS.toMillis(1)));
+
+        GCSSyncResult result = sync(Selectors.SELECT_ALL, false);
+        assertEquals(0, result.getFilesCopied());
+        assertEquals(3, result.getFilesSkipped());
+
+        // The new modification time was recorded, so the next sync does not compute the checksum again
+        GCSFileObject blob = (GCSFileObject) resolve("dest/a.txt");
+        blob.refresh();
+        blob.getContent().getSize();
+        assertEquals(String.valueOf(TimeUnit.MILLISECONDS.toSeconds(file.lastModified())),
+                blob.getBlob().getMetadata().get(GCSSync.SOURCE_MODIFIED_TIME));
+    }
+
+
+    @Test
+    public void testDeleteExtraneousKeepsExcludedBlobs() throws Exception {
+
+        server.putObject(BUCKET, "dest/extraneous.txt", new byte[1]);
+        server.putObject(BUCKET, "dest/excluded.log", new byte[1]);
+        server.putObject(BUCKET, "dest/pruned/extraneous.txt", new byte[1]);
+        write(new File(source, "excluded.log"), "log");
+
+        // Text files outside of the pruned folder
+        FileSelector selector = new FileSelector() {
+
+            @Override
+            public boolean includeFile(FileSelectInfo fileInfo) {
+
+                return fileInfo.getFile().getName().getBaseName().endsWith(".txt");
+            }
+
+
+            @Override
+            public boolean traverseDescendents(FileSelectInfo fileInfo) {
+
+                return !fileInfo.getFile().getName().getBaseName().equals("pruned");
+            }
+        };
+
+        GCSSyncResult result = sync(selector, true);
+        assertEquals(3, result.getFilesCopied());
+        assertEquals(1, result.getFilesDeleted());
+
+        assertFalse(resolve("dest/extraneous.txt").exists());
+        assertTrue(resolve("dest/excluded.log").exists());
+        assertTrue(resolve("dest/pruned/extraneous.txt").exists());
+        assertTrue(resolve("dest/sub/c.txt").exists());
+    }
+
+
+    @Test
+    public void testListenerFollowsOneTransferAtATime() throws Exception {
+
+        Thread caller = Thread.currentThread();
+        List<long[]> events = new ArrayList<>();
+        CopyStreamListener listener = new CopyStreamListener() {
+
+            @Override
+            public void bytesTransferred(CopyStreamEvent event) {
+
+                bytesTransferred(event.getTotalBytesTransferred(), event.getBytesTransferred(), event.getStreamSize());
+            }
+
+
+            @Override
+            public void bytesTransferred(long totalBytesTransferred, int bytesTransferred, long streamSize) {
+
+                assertSame(caller, Thread.currentThread());
+                events.add(new long[] { totalBytesTransferred, streamSize });
+            }
+        };
+
+        GCSFileObject dest = (GCSFileObject) resolve("dest");
+        GCSSyncResult result = dest.sync(fileSystemManager.resolveFile(source.getAbsolutePath()), Selectors.SELECT_ALL,
+                false, listener);
+        assertEquals(3, result.getFilesCopied());
+
+        // A transfer only starts once the previous one has completed
+        assertFalse(events.isEmpty());
+        for (int i = 1; i < events.size(); i++) {
+            if (events.get(i)[0] <= events.get(i - 1)[0]) {
+                assertEquals(events.get(i - 1)[1], events.get(i - 1)[0]);
+            }
+        }
+    }
+
+
+    private GCSSyncResult sync(FileSelector selector, boolean deleteExtraneous) throws Exception {
+
+        GCSFileObject dest = (GCSFileObject) resolve("dest");
+        return dest.sync(fileSystemManager.resolveFile(source.getAbsolutePath()), selector, deleteExtraneous, null);
+    }
+
+
+    private FileObject resolve(String path) throws Exception {
+
+        return fileSystemManager.resolveFile("gcs://" + BUCKET + "/" + path, fileSystemOptions);
+    }
+
+
+    private String read(String path) throws Exception {
+
+        FileObject file = resolve(path);
+        file.refresh();
+        try (InputStream inputStream = file.getContent().getInputStream()) {
+            return new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+        }
+    }
+
+
+    private static void write(File file, String content) throws Exception {
+
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,249 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import org.apache.commons.vfs2.FileChangeEvent;
+import org.apache.commons.vfs2.FileListener;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelectInfo;
+import org.apache.commons.vfs2.FileSelector;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class GCSTreeWalkerTest {
+
+    private static final String BUCKET = "walk";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DefaultFileSystemManager fileSystemManager;
+    private GCSRuntime runtime;
+
+
+    @Before
+    public void setUp() throws Exception {
+
+        fileSystemManager = new DefaultFileSystemManager();
+        fileSystemManager.addProvider("file", new DefaultLocalFileProvider());
+        fileSystemManager.addProvider("gcs", new GCSFileProvider());
+        fileSystemManager.init();
+        runtime = new GCSRuntime();
+
+        for (int i = 0; i < 10; i++) {
+            File dir = folder.newFolder("dir" + i, "sub");
+            for (int j = 0; j < 10; j++) {
+                new File(dir, "file" + j).createNewFile();
+            }
+        }
+    }
+
+
+    @After
+    public void tearDown() {
+
+        runtime.close();
+        fileSystemManager.close();
+    }
+
+
+    @Test
+    public void testWalkMatchesFindFiles() throws Exception {
+
+        FileObject base = fileSystemManager.resolveFile(folder.getRoot().getAbsolutePath());
+
+        assertEquals(findFiles(base, Selectors.SELECT_ALL), walk(base, Selectors.SELECT_ALL, 4));
+        assertEquals(findFiles(base, Selectors.SELECT_FILES), walk(base, Selectors.SELECT_FILES, 4));
+        assertEquals(findFiles(base, Selectors.SELECT_CHILDREN), walk(base, Selectors.SELECT_CHILDREN, 4));
+        assertEquals(findFiles(base, Selectors.SELECT_SELF), walk(base, Selectors.SELECT_SELF, 4));
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailureStopsTheWalk() throws Throwable {
+
+        FileObject base = fileSystemManager.resolveFile(folder.getRoot().getAbsolutePath());
+
+        try {
+            new GCSTreeWalker(runtime, 2).walk(base, Selectors.SELECT_FILES, file -> {
+                throw new IllegalStateException();
+            });
+        }
+        catch (Exception e) {
+            throw e.getCause();
+        }
+    }
+
+
+    @Test(timeout = 30_000)
+    public void testNestedWalkWithAllWalkerThreadsTaken() throws Exception {
+
+        FileSystemOptions fileSystemOptions = new FileSystemOptions();
+        GcsFileSystemConfigBuilder.getInstance().setTransferThreads(fileSystemOptions, 1);
+        FileObject base = fileSystemManager.resolveFile(folder.getRoot().getAbsolutePath());
+
+        try (GCSRuntime single = new GCSRuntime(fileSystemOptions)) {
+            // The outer worker takes the only walker thread, and each visit walks more files than a queue holds
+            Set<String> names = new ConcurrentSkipListSet<>();
+            new GCSTreeWalker(single, 1).walk(base, Selectors.SELECT_CHILDREN, child ->
+                    new GCSTreeWalker(single, 1).walk(base, Selectors.SELECT_FILES,
+                            file -> names.add(file.getName().getPath())));
+            assertEquals(findFiles(base, Selectors.SELECT_FILES), names);
+        }
+    }
+
+
+    @Test
+    public void testWalkBlobs() throws Exception {
+
+        try (LocalGCSServer server = new LocalGCSServer(BUCKET)) {
+            // Listed in this order: "-" sorts before "/", so dir1-x comes between dir1 and its blobs
+            for (String name : new String[] { "base/a.txt", "base/dir1-x", "base/dir1/", "base/dir1/file",
+                    "base/dir1/sub/file", "base/dir10/y", "base/dir2/x", "base/empty/", "other/z" }) {
+                server.putObject(BUCKET, name, new byte[0]);
+            }
+            FileObject base = resolveBlob(server, "base");
+
+            // Placeholders stand for their folder, and are not handed out themselves
+            assertEquals(paths("/base", "/base/a.txt", "/base/dir1-x", "/base/dir1", "/base/dir1/file",
+                    "/base/dir1/sub", "/base/dir1/sub/file", "/base/dir10", "/base/dir10/y", "/base/dir2",
+                    "/base/dir2/x", "/base/empty"), walk(base, Selectors.SELECT_ALL, 4));
+
+            assertEquals(paths("/base/a.txt", "/base/dir1-x", "/base/dir1", "/base/dir10", "/base/dir2",
+                    "/base/empty"), walk(base, Selectors.SELECT_CHILDREN, 4));
+
+            // A pruned folder is handed out, but none of its descendants
+            FileSelector pruning = new FileSelector() {
+
+                @Override
+                public boolean includeFile(FileSelectInfo fileInfo) {
+
+                    return true;
+                }
+
+
+                @Override
+                public boolean traverseDescendents(FileSelectInfo fileInfo) {
+
+                    return !fileInfo.getFile().getName().getBaseName().equals("dir1");
+                }
+            };
+            assertEquals(paths("/base", "/base/a.txt", "/base/dir1-x", "/base/dir1", "/base/dir10", "/base/dir10/y",
+                    "/base/dir2", "/base/dir2/x", "/base/empty"), walk(base, pruning, 4));
+        }
+    }
+
+
+    @Test
+    public void testDeleteBelowFolder() throws Exception {
+
+        try (LocalGCSServer server = new LocalGCSServer(BUCKET)) {
+            for (String name : new String[] { "base/a.txt", "base/dir/", "base/dir/b.txt", "base/virtual/c.txt" }) {
+                server.putObject(BUCKET, name, new byte[0]);
+            }
+            FileObject base = resolveBlob(server, "base");
+
+            Set<String> deleted = new ConcurrentSkipListSet<>();
+            FileListener listener = new FileListener() {
+
+                @Override
+                public void fileCreated(FileChangeEvent event) {
+
+                }
+
+
+                @Override
+                public void fileDeleted(FileChangeEvent event) {
+
+                    deleted.add(event.getFile().getName().getPath());
+                }
+
+
+                @Override
+                public void fileChanged(FileChangeEvent event) {
+
+                }
+            };
+            for (String path : new String[] { "a.txt", "dir", "dir/b.txt", "virtual", "virtual/c.txt" }) {
+                base.getFileSystem().addListener(base.resolveFile(path), listener);
+            }
+
+            // Folders without a placeholder are not counted, nor reported
+            assertEquals(4, base.delete(Selectors.SELECT_ALL));
+            assertEquals(paths("/base/a.txt", "/base/dir", "/base/dir/b.txt", "/base/virtual/c.txt"), deleted);
+            assertEquals(0, base.getChildren().length);
+        }
+    }
+
+
+    @Test
+    public void testWalkerWithoutWorkersProcessesInOrder() throws Exception {
+
+        Thread caller = Thread.currentThread();
+        List<String> visited = new ArrayList<>();
+        FileObject base = fileSystemManager.resolveFile(folder.getRoot().getAbsolutePath());
+        new GCSTreeWalker(runtime, 0).walk(base, Selectors.SELECT_ALL, file -> {
+            assertSame(caller, Thread.currentThread());
+            visited.add(file.getName().getPath());
+        });
+
+        // The base, 10 folders with a sub folder each, and their files
+        assertEquals(1 + 10 * 2 + 10 * 10, visited.size());
+        for (int i = 1; i < visited.size(); i++) {
+            String path = visited.get(i);
+            assertTrue(visited.subList(0, i).contains(path.substring(0, path.lastIndexOf('/'))));
+        }
+    }
+
+
+    private FileObject resolveBlob(LocalGCSServer server, String path) throws Exception {
+
+        return fileSystemManager.resolveFile("gcs://" + BUCKET + "/" + path, server.newOptions());
+    }
+
+
+    private static Set<String> paths(String... paths) {
+
+        return new TreeSet<>(Arrays.asList(paths));
+    }
+
+
+    private Set<String> walk(FileObject base, FileSelector selector, int threads) throws Exception {
+
+        Set<String> names = new ConcurrentSkipListSet<>();
+        new GCSTreeWalker(runtime, threads).walk(base, selector, file -> names.add(file.getName().getPath()));
+        return names;
+    }
+
+
+    private Set<String> findFiles(FileObject base, FileSelector selector) throws Exception {
+
+        List<FileObject> files = new ArrayList<>();
+        base.findFiles(selector, false, files);
+
+        Set<String> names = new TreeSet<>();
+        for (FileObject file : files) {
+            names.add(file.getName().getPath());
+        }
+        return names;
+    }
+}
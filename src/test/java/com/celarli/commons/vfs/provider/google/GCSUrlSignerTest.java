@@ -0,0 +1,119 @@
+package com.celarli.commons.vfs.provider.google;
+
+import com.google.api.core.ApiClock;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.storage.StorageOptions;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class GCSUrlSignerTest {
+
+    private static final long DURATION = 3600;
+    private static final long DURATION_MILLIS = TimeUnit.SECONDS.toMillis(DURATION);
+
+    private long now = 1_500_000_000_123L;
+    private GCSUrlSigner signer;
+
+
+    @Before
+    public void setUp() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        ServiceAccountCredentials credentials = ServiceAccountCredentials.newBuilder()
+                .setClientEmail("signer@local.iam.gserviceaccount.com")
+                .setPrivateKey(generator.generateKeyPair().getPrivate())
+                .build();
+
+        ApiClock clock = new ApiClock() {
+
+            @Override
+            public long nanoTime() {
+
+                return TimeUnit.MILLISECONDS.toNanos(now);
+            }
+
+
+            @Override
+            public long millisTime() {
+
+                return now;
+            }
+        };
+        signer = new GCSUrlSigner(StorageOptions.newBuilder().setProjectId("local").setCredentials(credentials)
+                .setClock(clock).build().getService());
+    }
+
+
+    @Test
+    public void testUrlIsValidForTheRequestedDuration() throws Exception {
+
+        long expires = TimeUnit.SECONDS.toMillis(expires(signer.sign("bucket", "blob", DURATION)));
+
+        // Rounded up to a tenth of the duration
+        assertTrue(expires >= now + DURATION_MILLIS);
+        assertTrue(expires <= now + DURATION_MILLIS + DURATION_MILLIS / 10);
+        assertEquals(0, expires % (DURATION_MILLIS / 10));
+    }
+
+
+    @Test
+    public void testUrlIsServedFromTheCacheWithinTheWindow() throws Exception {
+
+        URL url = signer.sign("bucket", "blob", DURATION);
+        long servedUntil = TimeUnit.SECONDS.toMillis(expires(url)) - DURATION_MILLIS;
+
+        now = servedUntil;
+        assertSame(url, signer.sign("bucket", "blob", DURATION));
+        assertNotEquals(url, signer.sign("bucket", "other", DURATION));
+    }
+
+
+    @Test
+    public void testUrlIsSignedAgainAfterTheWindow() throws Exception {
+
+        URL url = signer.sign("bucket", "blob", DURATION);
+        now = TimeUnit.SECONDS.toMillis(expires(url)) - DURATION_MILLIS + 1;
+
+        URL renewed = signer.sign("bucket", "blob", DURATION);
+        assertNotEquals(url, renewed);
+        assertTrue(TimeUnit.SECONDS.toMillis(expires(renewed)) >= now + DURATION_MILLIS);
+    }
+
+
+    @Test
+    public void testSweepEvictsUrlsNoLongerServed() throws Exception {
+
+        for (int i = 0; i < 1000; i++) {
+            signer.sign("bucket", "blob" + i, DURATION);
+        }
+        assertEquals(1000, signer.getCacheSize());
+
+        // Still valid, but later requests round up to a later expiration
+        now += DURATION_MILLIS / 10 + 1;
+        for (int i = 0; i < 24; i++) {
+            signer.sign("bucket", "other" + i, DURATION);
+        }
+        assertEquals(24, signer.getCacheSize());
+    }
+
+
+    private static long expires(URL url) {
+
+        Matcher matcher = Pattern.compile("[?&]Expires=(\\d+)").matcher(url.toString());
+        assertTrue(url.toString(), matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+}
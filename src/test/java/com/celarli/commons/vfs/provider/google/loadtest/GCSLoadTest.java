@@ -0,0 +1,323 @@
+package com.celarli.commons.vfs.provider.google.loadtest;
+
+import com.celarli.commons.vfs.provider.google.GCSFileObject;
+import com.celarli.commons.vfs.provider.google.GCSFileProvider;
+import com.celarli.commons.vfs.provider.google.GCSRuntime;
+import com.celarli.commons.vfs.provider.google.GcsFileSystemConfigBuilder;
+import com.celarli.commons.vfs.provider.google.testing.LocalGCSServer;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.cache.NullFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Drives concurrent resolve, list, read, write, copy and sync workloads against a {@link LocalGCSServer} injecting
+ * latency, throttling and errors, then reports the throughput, latency percentiles and allocations of each
+ * operation. It only runs with the load-test profile:
+ * <pre>
+ * mvn test -Pload-test -Dgcs.load.threads=32 -Dgcs.load.duration=300 -Dgcs.load.throttleRate=0.05
+ * </pre>
+ * The settings are the gcs.load.* system properties read below.
+ */
+public class GCSLoadTest {
+
+    private static final int THREADS = Integer.getInteger("gcs.load.threads", 16);
+    /**
+     * Each bucket is a file system of its own, and VFS serializes most operations of a file system
+     */
+    private static final int BUCKETS = Integer.getInteger("gcs.load.buckets", 4);
+    private static final int DURATION_SECONDS = Integer.getInteger("gcs.load.duration", 30);
+    private static final int OBJECTS = Integer.getInteger("gcs.load.objects", 1000);
+    private static final int FOLDERS = Integer.getInteger("gcs.load.folders", 20);
+    private static final int OBJECT_SIZE = Integer.getInteger("gcs.load.objectSize", 64 * 1024);
+    private static final long LATENCY_MILLIS = Long.getLong("gcs.load.latency", 5);
+    private static final long JITTER_MILLIS = Long.getLong("gcs.load.jitter", 5);
+    private static final double THROTTLE_RATE = Double.parseDouble(System.getProperty("gcs.load.throttleRate", "0.01"));
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("gcs.load.errorRate", "0.01"));
+    private static final int MAX_IN_FLIGHT_REQUESTS = Integer.getInteger("gcs.load.maxInFlightRequests", 0);
+    private static final String MIX = System.getProperty("gcs.load.mix",
+            "resolve:40,list:10,read:25,write:10,copy:10,sync:5");
+    private static final double MAX_FAILURE_RATE =
+            Double.parseDouble(System.getProperty("gcs.load.maxFailureRate", "0.01"));
+
+    /**
+     * The number of files of the local folders mirrored by the sync operation
+     */
+    private static final int SYNC_FILES = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalGCSServer server;
+    private GCSRuntime runtime;
+    private DefaultFileSystemManager fileSystemManager;
+    private FileSystemOptions fileSystemOptions;
+    private File[] syncFolders;
+
+
+    @Before
+    public void setUp() throws Exception {
+
+        // Logging every request would dominate the measurements
+        Configurator.setRootLevel(Level.getLevel(System.getProperty("gcs.load.logLevel", "WARN")));
+
+        String[] buckets = new String[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = bucket(i);
+        }
+        server = new LocalGCSServer(buckets);
+
+        byte[] content = new byte[OBJECT_SIZE];
+        ThreadLocalRandom.current().nextBytes(content);
+        for (String bucket : buckets) {
+            for (int i = 0; i < OBJECTS; i++) {
+                server.putObject(bucket, dataPath(i), content);
+            }
+        }
+
+        FileSystemOptions runtimeOptions = server.newOptions();
+        GcsFileSystemConfigBuilder builder = GcsFileSystemConfigBuilder.getInstance();
+        builder.setMaxInFlightRequests(runtimeOptions, MAX_IN_FLIGHT_REQUESTS);
+        runtime = new GCSRuntime(runtimeOptions);
+
+        fileSystemOptions = server.newOptions();
+        builder.setRuntime(fileSystemOptions, runtime);
+
+        // Every resolve goes to the server, as it would across many short lived managers
+        fileSystemManager = new DefaultFileSystemManager();
+        fileSystemManager.setFilesCache(new NullFilesCache());
+        fileSystemManager.addProvider("gcs", new GCSFileProvider());
+        fileSystemManager.addProvider("file", new DefaultLocalFileProvider());
+        fileSystemManager.init();
+
+        // Two overlapping folders, so each sync uploads some files and deletes others
+        syncFolders = new File[] { folder.newFolder("a"), folder.newFolder("b") };
+        for (int i = 0; i < SYNC_FILES; i++) {
+            Files.write(new File(syncFolders[0], "file" + i).toPath(), content);
+            Files.write(new File(syncFolders[1], "file" + (i + SYNC_FILES / 2)).toPath(), content);
+        }
+    }
+
+
+    @After
+    public void tearDown() {
+
+        fileSystemManager.close();
+        runtime.close();
+        server.close();
+    }
+
+
+    @Test
+    public void testMixedWorkload() throws Exception {
+
+        server.setLatency(LATENCY_MILLIS, JITTER_MILLIS);
+        server.setThrottleRate(THROTTLE_RATE);
+        server.setErrorRate(ERROR_RATE);
+
+        Map<String, Integer> weights = parseMix(MIX);
+        Map<String, OperationStatistics> statistics = new LinkedHashMap<>();
+        weights.keySet().forEach(operation -> statistics.put(operation, new OperationStatistics(operation)));
+        int totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int worker = i;
+            futures.add(workers.submit(() -> {
+                for (long iteration = 0; System.nanoTime() < deadline; iteration++) {
+                    String operation = pick(weights, totalWeight);
+                    OperationStatistics operationStatistics = statistics.get(operation);
+
+                    long allocatedBefore = allocatedBytes(threadMXBean);
+                    long operationStart = System.nanoTime();
+                    try {
+                        run(operation, worker, iteration);
+                        operationStatistics.record(System.nanoTime() - operationStart,
+                                allocatedBytes(threadMXBean) - allocatedBefore);
+                    }
+                    catch (Exception | AssertionError e) {
+                        operationStatistics.fail(e);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        workers.shutdown();
+        long elapsed = System.nanoTime() - start;
+
+        long operations = 0;
+        long failures = 0;
+        long allocated = 0;
+        System.out.println();
+        System.out.println(format("%d threads on %d buckets for %ds, latency %d+%dms, throttle rate %.3f, "
+                        + "error rate %.3f", THREADS, BUCKETS, DURATION_SECONDS, LATENCY_MILLIS, JITTER_MILLIS,
+                THROTTLE_RATE, ERROR_RATE));
+        System.out.println(OperationStatistics.header());
+        for (OperationStatistics operationStatistics : statistics.values()) {
+            System.out.println(operationStatistics.report(elapsed));
+            operations += operationStatistics.getCount() + operationStatistics.getFailures();
+            failures += operationStatistics.getFailures();
+            allocated += operationStatistics.getAllocatedBytes();
+        }
+        System.out.println(format("allocation: %.1f MB/s on the worker threads",
+                allocated / (elapsed / 1e9) / (1024 * 1024)));
+        for (OperationStatistics operationStatistics : statistics.values()) {
+            if (operationStatistics.getFirstFailure() != null) {
+                System.out.println("first failure of " + operationStatistics.getName() + ":");
+                operationStatistics.getFirstFailure().printStackTrace(System.out);
+            }
+        }
+        System.out.println(format("server: %d requests, %d throttled, %d failed", server.getRequestCount(),
+                server.getThrottledCount(), server.getFailedCount()));
+
+        assertTrue("No operation completed", operations > 0);
+        assertTrue(format("%d of %d operations failed", failures, operations),
+                failures <= operations * MAX_FAILURE_RATE);
+    }
+
+
+    private void run(String operation, int worker, long iteration) throws Exception {
+
+        String bucket = bucket(ThreadLocalRandom.current().nextInt(BUCKETS));
+        int index = ThreadLocalRandom.current().nextInt(OBJECTS);
+        switch (operation) {
+        case "resolve":
+            assertTrue(resolve(bucket, dataPath(index)).exists());
+            break;
+
+        case "list":
+            resolve(bucket, "data/f" + index % FOLDERS).getChildren();
+            break;
+
+        case "read":
+            try (InputStream inputStream = resolve(bucket, dataPath(index)).getContent().getInputStream()) {
+                byte[] buffer = new byte[8192];
+                long size = 0;
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    size += read;
+                }
+                assertEquals(OBJECT_SIZE, size);
+            }
+            break;
+
+        case "write":
+            FileObject file = resolve(bucket, format("write/%d/%d", worker, iteration % 16));
+            byte[] content = new byte[OBJECT_SIZE];
+            try (OutputStream outputStream = file.getContent().getOutputStream()) {
+                outputStream.write(content);
+            }
+            break;
+
+        case "copy":
+            resolve(bucket, format("copy/%d/%d", worker, iteration % 16))
+                    .copyFrom(resolve(bucket, dataPath(index)), Selectors.SELECT_SELF);
+            break;
+
+        case "sync":
+            File source = syncFolders[(int) (iteration % 2)];
+            ((GCSFileObject) resolve(bucket, "sync/" + worker))
+                    .sync(fileSystemManager.resolveFile(source.getAbsolutePath()), Selectors.SELECT_ALL, true, null);
+            break;
+
+        default:
+            throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+
+    private FileObject resolve(String bucket, String path) throws Exception {
+
+        return fileSystemManager.resolveFile(format("gcs://%s/%s", bucket, path), fileSystemOptions);
+    }
+
+
+    private static String bucket(int index) {
+
+        return "load-test-" + index;
+    }
+
+
+    private static String dataPath(int index) {
+
+        return format("data/f%d/o%d", index % FOLDERS, index);
+    }
+
+
+    private static Map<String, Integer> parseMix(String mix) {
+
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            int weight = Integer.parseInt(parts[1]);
+            if (weight > 0) {
+                weights.put(parts[0], weight);
+            }
+        }
+        return weights;
+    }
+
+
+    private static String pick(Map<String, Integer> weights, int totalWeight) {
+
+        int draw = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            draw -= entry.getValue();
+            if (draw < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+
+    /**
+     * Returns the memory allocated so far by the current thread, or -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes(ThreadMXBean threadMXBean) {
+
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,126 @@
+package com.celarli.commons.vfs.provider.google.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+
+/**
+ * Records the latencies, failures and allocations of one kind of operation
+ */
+class OperationStatistics {
+
+    private final String name;
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    private volatile Throwable firstFailure;
+
+    private long[] latencies = new long[1024];
+    private int count = 0;
+
+
+    OperationStatistics(String name) {
+
+        this.name = name;
+    }
+
+
+    /**
+     * Records a successful operation
+     *
+     * @param latencyNanos   the time it took
+     * @param allocatedBytes the memory the calling thread allocated while running it, or a negative value if unknown
+     */
+    void record(long latencyNanos, long allocatedBytes) {
+
+        if (allocatedBytes > 0) {
+            this.allocatedBytes.add(allocatedBytes);
+        }
+        synchronized (this) {
+            if (this.count == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+            }
+            this.latencies[this.count++] = latencyNanos;
+        }
+    }
+
+
+    void fail(Throwable failure) {
+
+        this.failures.increment();
+        if (this.firstFailure == null) {
+            this.firstFailure = failure;
+        }
+    }
+
+
+    /**
+     * Returns the first failure of the operation, or null if it never failed
+     */
+    Throwable getFirstFailure() {
+
+        return this.firstFailure;
+    }
+
+
+    String getName() {
+
+        return this.name;
+    }
+
+
+    synchronized long getCount() {
+
+        return this.count;
+    }
+
+
+    long getFailures() {
+
+        return this.failures.sum();
+    }
+
+
+    long getAllocatedBytes() {
+
+        return this.allocatedBytes.sum();
+    }
+
+
+    /**
+     * Formats the throughput, latency percentiles and allocations of the operation
+     *
+     * @param elapsedNanos the duration of the run
+     * @return a line of the report
+     */
+    synchronized String report(long elapsedNanos) {
+
+        long[] sorted = Arrays.copyOf(this.latencies, this.count);
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+
+        return format("%-8s %9d %6d %10.1f %9.2f %9.2f %9.2f %9.2f %12d", this.name, this.count, getFailures(),
+                this.count / seconds, millis(sorted, 0.50), millis(sorted, 0.90), millis(sorted, 0.99),
+                millis(sorted, 1.0), this.count > 0 ? this.allocatedBytes.sum() / this.count : 0);
+    }
+
+
+    static String header() {
+
+        return format("%-8s %9s %6s %10s %9s %9s %9s %9s %12s", "op", "count", "failed", "ops/s", "p50 ms",
+                "p90 ms", "p99 ms", "max ms", "alloc B/op");
+    }
+
+
+    private static double millis(long[] sorted, double percentile) {
+
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}